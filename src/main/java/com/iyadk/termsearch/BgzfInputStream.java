@@ -0,0 +1,223 @@
+package com.iyadk.termsearch;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decompresses a blocked gzip (BGZF) file with several threads.
+ *
+ * A BGZF file is a series of independent gzip members that record their compressed size in the
+ * BC extra field of their header.  The member boundaries are therefore found without decompressing
+ * anything: a scanning thread reads the members one after another and hands each one to the pool
+ * of decompression threads.  The decompressed members are read back in file order.  The number of
+ * members in flight is bounded so that memory stays constant however far ahead the pool gets.
+ *
+ * @author Iyad Kandalaft
+ */
+public class BgzfInputStream extends InputStream {
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int FEXTRA = 4;
+	// Fixed header bytes before the extra field and its length
+	private static final int HEADER_SIZE = 12;
+
+	private final FileChannel channel;
+	private final ExecutorService decompressors;
+	private final BlockingQueue<Future<byte[]>> members;
+	private final Thread scanner;
+	// Marks the end of the members
+	private final Future<byte[]> endOfFile = CompletableFuture.completedFuture(null);
+
+	private byte[] member;
+	private int position;
+
+	/**
+	 * @param path Path to the BGZF file
+	 * @param threads Number of threads decompressing members
+	 */
+	public BgzfInputStream(Path path, int threads) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		decompressors = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+			Thread thread = new Thread(runnable, "bgzf-decompressor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		members = new ArrayBlockingQueue<>(Math.max(1, threads) * 4);
+		scanner = new Thread(this::scanMembers, "bgzf-scanner");
+		scanner.setDaemon(true);
+		scanner.start();
+	}
+
+	/**
+	 * @return True if the file starts with a gzip member that records its size like BGZF
+	 */
+	public static boolean isBgzf(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return memberSize(channel, 0) > 0;
+		}
+	}
+
+	/*
+	 * Reads the size of the member at the position from its BC extra subfield
+	 * @return The size of the member including its header and trailer, 0 if the header has no size or -1 at the end of the file
+	 */
+	private static int memberSize(FileChannel channel, long position) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		if (readFully(channel, header, position) == 0)
+			return -1;
+		if (header.position() < HEADER_SIZE || (header.getShort(0) & 0xffff) != GZIP_MAGIC || (header.get(3) & FEXTRA) == 0)
+			return 0;
+
+		int extraLength = header.getShort(10) & 0xffff;
+		ByteBuffer extra = ByteBuffer.allocate(extraLength).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, extra, position + HEADER_SIZE);
+		if (extra.position() < extraLength)
+			return 0;
+
+		// Subfields are an identifier of 2 bytes, a length of 2 bytes and the data
+		int subfield = 0;
+		while (subfield + 4 <= extraLength) {
+			int subfieldLength = extra.getShort(subfield + 2) & 0xffff;
+			if (extra.get(subfield) == 'B' && extra.get(subfield + 1) == 'C' && subfieldLength == 2)
+				return (extra.getShort(subfield + 4) & 0xffff) + 1;
+			subfield += 4 + subfieldLength;
+		}
+		return 0;
+	}
+
+	/*
+	 * @return The number of bytes read into the buffer
+	 */
+	private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int total = 0;
+		int read;
+		while (buffer.hasRemaining() && (read = channel.read(buffer, position + total)) > 0)
+			total += read;
+		return total;
+	}
+
+	/*
+	 * Reads every member and queues its decompression in file order
+	 */
+	private void scanMembers() {
+		try {
+			long position = 0;
+			while (true) {
+				int size = memberSize(channel, position);
+				if (size < 0)
+					break;
+				if (size == 0)
+					throw new IOException("The gzip member at byte " + position + " is not a BGZF block");
+
+				ByteBuffer compressed = ByteBuffer.allocate(size);
+				if (readFully(channel, compressed, position) < size)
+					throw new EOFException("The BGZF block at byte " + position + " is truncated");
+				members.put(decompressors.submit(() -> decompress(compressed.array())));
+				position += size;
+			}
+			members.put(endOfFile);
+		} catch (IOException e) {
+			try {
+				CompletableFuture<byte[]> failure = new CompletableFuture<>();
+				failure.completeExceptionally(e);
+				members.put(failure);
+			} catch (InterruptedException e1) {
+				// The reader closed the stream
+			}
+		} catch (InterruptedException e) {
+			// The reader closed the stream
+		}
+	}
+
+	private static byte[] decompress(byte[] compressed) throws IOException {
+		// The last 4 bytes hold the decompressed size
+		int size = ByteBuffer.wrap(compressed, compressed.length - 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+		byte[] decompressed = new byte[size];
+		try (GZIPInputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			int length = 0;
+			int read;
+			while (length < size && (read = gzipStream.read(decompressed, length, size - length)) > -1)
+				length += read;
+			if (length < size)
+				throw new EOFException("The BGZF block is shorter than its recorded size");
+		}
+		return decompressed;
+	}
+
+	/*
+	 * Waits for the next member once the current one is consumed
+	 * @return False at the end of the file
+	 */
+	private boolean nextMember() throws IOException {
+		while (member == null || position == member.length) {
+			if (member == null && position < 0)
+				return false;
+
+			Future<byte[]> next;
+			try {
+				next = members.take();
+				member = next.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while decompressing");
+			} catch (ExecutionException e) {
+				throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+			}
+			position = 0;
+
+			if (next == endOfFile) {
+				member = null;
+				position = -1;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextMember())
+			return -1;
+		return member[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0)
+			return 0;
+		if (!nextMember())
+			return -1;
+
+		int copied = Math.min(length, member.length - position);
+		System.arraycopy(member, position, buffer, offset, copied);
+		position += copied;
+		return copied;
+	}
+
+	@Override
+	public void close() throws IOException {
+		scanner.interrupt();
+		decompressors.shutdownNow();
+		try {
+			scanner.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+	}
+}
@@ -0,0 +1,243 @@
+package com.iyadk.termsearch;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Expands the corpus arguments of the index command into the files of the corpus and opens them.
+ *
+ * An argument is a file, a directory whose files are all part of the corpus, or a glob
+ * (e.g. shards/*.txt).  The files are ordered by argument and by path within a directory
+ * or glob so that the same arguments always number the corpus lines, and therefore assign
+ * the docIds, the same way.  Hidden files are skipped.
+ *
+ * Files ending with .gz, .gzip or .bgz are decompressed and the entries of .zip files are read in order
+ * as if they were separate files.  Decompression runs on its own thread, or on several threads for
+ * blocked gzip (BGZF) files, so that it overlaps with parsing the lines.
+ *
+ * @author Iyad Kandalaft
+ */
+public class CorpusFiles {
+	private static final String GLOB_CHARACTERS = "*?[{";
+	private static final String[] GZIP_EXTENSIONS = { ".gz", ".gzip", ".bgz" };
+	private static final String ZIP_EXTENSION = ".zip";
+
+	private CorpusFiles() {
+	}
+
+	/**
+	 * @param corpusArguments Files, directories and globs of the corpus
+	 * @return The corpus files in the order they are numbered
+	 * @throws FileNotFoundException If an argument does not match any file
+	 */
+	public static List<Path> expand(List<String> corpusArguments) throws IOException {
+		Set<Path> corpusPaths = new LinkedHashSet<>();
+		for (String corpusArgument : corpusArguments) {
+			List<Path> matches = expand(corpusArgument);
+			if (matches.isEmpty())
+				throw new FileNotFoundException(corpusArgument);
+			corpusPaths.addAll(matches);
+		}
+		return new ArrayList<>(corpusPaths);
+	}
+
+	private static List<Path> expand(String corpusArgument) throws IOException {
+		Path corpusPath = Paths.get(corpusArgument);
+		if (Files.isRegularFile(corpusPath))
+			return listOf(corpusPath);
+		if (Files.isDirectory(corpusPath))
+			return walk(corpusPath, path -> true);
+		if (!isGlob(corpusArgument))
+			return new ArrayList<>();
+
+		// Walk from the deepest directory that precedes the first glob character
+		int firstGlob = 0;
+		while (GLOB_CHARACTERS.indexOf(corpusArgument.charAt(firstGlob)) < 0)
+			firstGlob++;
+		int lastSeparator = Math.max(corpusArgument.lastIndexOf('/', firstGlob), corpusArgument.lastIndexOf('\\', firstGlob));
+		Path baseDirectory = lastSeparator < 0 ? Paths.get("") : Paths.get(corpusArgument.substring(0, lastSeparator + 1));
+		if (!Files.isDirectory(baseDirectory.toAbsolutePath()))
+			return new ArrayList<>();
+
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + corpusArgument);
+		return walk(baseDirectory, matcher);
+	}
+
+	private static boolean isGlob(String corpusArgument) {
+		for (int i = 0; i < corpusArgument.length(); i++) {
+			if (GLOB_CHARACTERS.indexOf(corpusArgument.charAt(i)) > -1)
+				return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Lists the visible files under the directory that match in the order of their paths
+	 */
+	private static List<Path> walk(Path directory, PathMatcher matcher) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory.toString().isEmpty() ? Paths.get(".") : directory)) {
+			return paths
+					.map(path -> directory.toString().isEmpty() ? Paths.get(".").relativize(path) : path)
+					.filter(path -> Files.isRegularFile(path) && !isHidden(path, directory) && matcher.matches(path))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	/*
+	 * A file is hidden if its name or a directory below the walked directory starts with a dot
+	 */
+	private static boolean isHidden(Path path, Path directory) {
+		Path relativePath = directory.toString().isEmpty() ? path : directory.relativize(path);
+		for (Path name : relativePath) {
+			if (name.toString().startsWith("."))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return True if the file is decompressed when it is read
+	 */
+	public static boolean isCompressed(Path path) {
+		String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+		for (String extension : GZIP_EXTENSIONS) {
+			if (name.endsWith(extension))
+				return true;
+		}
+		return name.endsWith(ZIP_EXTENSION);
+	}
+
+	/**
+	 * Opens a corpus file and decompresses it on separate threads if it is compressed
+	 *
+	 * @param path Path to the corpus file
+	 * @param decompressionThreads Number of threads decompressing the blocks of a BGZF file
+	 * @return The decompressed content of the file
+	 */
+	public static InputStream open(Path path, int decompressionThreads) throws IOException {
+		return open(path, decompressionThreads, 0, 0);
+	}
+
+	/**
+	 * Opens a corpus file that is read ahead asynchronously and decompresses it on separate threads
+	 * if it is compressed
+	 *
+	 * @param path Path to the corpus file
+	 * @param decompressionThreads Number of threads decompressing the blocks of a BGZF file
+	 * @param readAheadDepth Number of buffers read ahead (0 for synchronous reads)
+	 * @param readAheadBufferSize Size of every buffer read ahead in bytes
+	 * @return The decompressed content of the file
+	 */
+	public static InputStream open(Path path, int decompressionThreads, int readAheadDepth, int readAheadBufferSize)
+			throws IOException {
+		if (!isCompressed(path))
+			return openFile(path, readAheadDepth, readAheadBufferSize);
+
+		String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+		if (name.endsWith(ZIP_EXTENSION))
+			return new PipelinedInputStream(new ZipEntriesInputStream(openFile(path, readAheadDepth, readAheadBufferSize)),
+					"decompress-" + path.getFileName());
+		if (BgzfInputStream.isBgzf(path))
+			return new BgzfInputStream(path, decompressionThreads);
+		// Members of other gzip files can only be found by decompressing the members before them
+		return new PipelinedInputStream(new GZIPInputStream(openFile(path, readAheadDepth, readAheadBufferSize), 65536),
+				"decompress-" + path.getFileName());
+	}
+
+	private static InputStream openFile(Path path, int readAheadDepth, int readAheadBufferSize) throws IOException {
+		if (readAheadDepth > 0)
+			return new ReadAheadInputStream(path, readAheadDepth, readAheadBufferSize);
+		return new FileInputStream(path.toFile());
+	}
+
+	/**
+	 * Reads the entries of a zip file one after another.  An entry that does not end with a new line
+	 * is followed by one so that its last line ends with the entry like it does with a file.
+	 */
+	private static class ZipEntriesInputStream extends InputStream {
+		private final ZipInputStream zipStream;
+		private boolean inEntry;
+		private int lastByte = '\n';
+		private boolean separatorPending;
+
+		ZipEntriesInputStream(InputStream zipFile) {
+			zipStream = new ZipInputStream(new BufferedInputStream(zipFile, 65536));
+		}
+
+		/*
+		 * Moves to the next file entry once the current one is exhausted
+		 * @return False after the last entry
+		 */
+		private boolean nextEntry() throws IOException {
+			ZipEntry entry;
+			while ((entry = zipStream.getNextEntry()) != null) {
+				if (!entry.isDirectory()) {
+					// Separate the last line of the previous entry from the first line of this one
+					separatorPending = lastByte != '\n';
+					inEntry = true;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0)
+				return 0;
+			while (true) {
+				if (!inEntry && !nextEntry())
+					return -1;
+				if (separatorPending) {
+					separatorPending = false;
+					buffer[offset] = '\n';
+					lastByte = '\n';
+					return 1;
+				}
+
+				int read = zipStream.read(buffer, offset, length);
+				if (read > 0) {
+					lastByte = buffer[offset + read - 1];
+					return read;
+				}
+				inEntry = false;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			zipStream.close();
+		}
+	}
+
+	private static List<Path> listOf(Path path) {
+		List<Path> paths = new ArrayList<>();
+		paths.add(path);
+		return paths;
+	}
+}
@@ -0,0 +1,185 @@
+package com.iyadk.termsearch;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the delimiter of a corpus line in its UTF-8, US-ASCII or ISO-8859-1 bytes so that the title
+ * can be located without decoding the line.
+ *
+ * Only delimiters made of literal characters, escaped characters and '.' are supported, which
+ * covers the default ".txt:".  A match is the same as the first match of the delimiter regex:
+ * the delimiter is tried at every character of the line from its start and '.' matches any
+ * character but a line terminator.  Malformed bytes are decoded as replacement characters by the
+ * regex so lines that have some before the delimiter must be decoded instead.
+ *
+ * @author Iyad Kandalaft
+ */
+public class DelimiterMatcher {
+	/**
+	 * Returned by find when the line has malformed bytes before the delimiter
+	 */
+	public static final int MALFORMED = -2;
+
+	// Element of the delimiter that matches any character
+	private static final byte[] ANY = new byte[0];
+	private static final String METACHARACTERS = "^$|?*+()[]{}";
+
+	// Encoded literal characters and ANY
+	private final byte[][] elements;
+	// Every byte is a character in ISO-8859-1 while only the bytes below 0x80 are in US-ASCII
+	private final boolean singleByte;
+	private final boolean ascii;
+
+	private DelimiterMatcher(byte[][] elements, Charset charset) {
+		this.elements = elements;
+		this.singleByte = StandardCharsets.ISO_8859_1.equals(charset);
+		this.ascii = StandardCharsets.US_ASCII.equals(charset);
+	}
+
+	/**
+	 * @param delimiter Regex splitting the titles of the lines from their content
+	 * @param charset Charset of the corpus
+	 * @return The matcher of the delimiter or null if the delimiter or the charset is not supported
+	 */
+	public static DelimiterMatcher compile(String delimiter, Charset charset) {
+		if (!(StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset)
+				|| StandardCharsets.ISO_8859_1.equals(charset)) || delimiter.isEmpty())
+			return null;
+
+		List<byte[]> elements = new ArrayList<>();
+		for (int i = 0; i < delimiter.length(); i++) {
+			int codePoint = delimiter.codePointAt(i);
+			i += Character.charCount(codePoint) - 1;
+			if (codePoint == '.') {
+				elements.add(ANY);
+				continue;
+			}
+			if (codePoint == '\\') {
+				if (++i == delimiter.length())
+					return null;
+				codePoint = delimiter.codePointAt(i);
+				i += Character.charCount(codePoint) - 1;
+				if (codePoint == 't')
+					codePoint = '\t';
+				// Other escaped letters and digits are classes, back references or quotes
+				else if (Character.isLetterOrDigit(codePoint))
+					return null;
+			} else if (METACHARACTERS.indexOf(codePoint) >= 0) {
+				return null;
+			}
+			String character = new String(Character.toChars(codePoint));
+			if (!charset.newEncoder().canEncode(character))
+				return null;
+			elements.add(character.getBytes(charset));
+		}
+		return new DelimiterMatcher(elements.toArray(new byte[0][]), charset);
+	}
+
+	/**
+	 * Finds the first match of the delimiter within the bytes of a line
+	 *
+	 * @param buffer Bytes holding the line
+	 * @param start Index of the first byte of the line
+	 * @param end Index following the last byte of the line
+	 * @return The index of the first byte of the match, -1 if the line has no delimiter or MALFORMED
+	 */
+	public int find(ByteBuffer buffer, int start, int end) {
+		int position = start;
+		while (position < end) {
+			int match = matchAt(buffer, position, end);
+			if (match != 0)
+				return match > 0 ? position : MALFORMED;
+			int length = characterLength(buffer, position, end);
+			if (length == 0)
+				return MALFORMED;
+			position += length;
+		}
+		return -1;
+	}
+
+	/*
+	 * Returns 1 if the delimiter matches at the position, 0 if it does not and -1 if '.' falls on malformed bytes
+	 */
+	private int matchAt(ByteBuffer buffer, int position, int end) {
+		for (byte[] element : elements) {
+			if (element == ANY) {
+				if (position == end)
+					return 0;
+				int length = characterLength(buffer, position, end);
+				if (length == 0)
+					return -1;
+				if (isLineTerminator(buffer, position, length))
+					return 0;
+				position += length;
+				continue;
+			}
+			if (end - position < element.length)
+				return 0;
+			for (int i = 0; i < element.length; i++) {
+				if (buffer.get(position + i) != element[i])
+					return 0;
+			}
+			position += element.length;
+		}
+		return 1;
+	}
+
+	/*
+	 * Returns the number of bytes of the well-formed character at the position, or 0 if the bytes are malformed
+	 */
+	private int characterLength(ByteBuffer buffer, int position, int end) {
+		int lead = buffer.get(position) & 0xFF;
+		if (lead < 0x80 || singleByte)
+			return 1;
+		if (ascii)
+			return 0;
+		int length;
+		int min = 0x80;
+		int max = 0xBF;
+		if (lead >= 0xC2 && lead <= 0xDF) {
+			length = 2;
+		} else if (lead >= 0xE0 && lead <= 0xEF) {
+			length = 3;
+			// Overlong encodings and surrogates are malformed
+			if (lead == 0xE0)
+				min = 0xA0;
+			else if (lead == 0xED)
+				max = 0x9F;
+		} else if (lead >= 0xF0 && lead <= 0xF4) {
+			length = 4;
+			if (lead == 0xF0)
+				min = 0x90;
+			else if (lead == 0xF4)
+				max = 0x8F;
+		} else {
+			return 0;
+		}
+		if (position + length > end)
+			return 0;
+		int second = buffer.get(position + 1) & 0xFF;
+		if (second < min || second > max)
+			return 0;
+		for (int i = 2; i < length; i++) {
+			if ((buffer.get(position + i) & 0xC0) != 0x80)
+				return 0;
+		}
+		return length;
+	}
+
+	/*
+	 * '.' does not match \r, \n, NEL (U+0085), or the line and paragraph separators (U+2028 and U+2029)
+	 */
+	private boolean isLineTerminator(ByteBuffer buffer, int position, int length) {
+		byte lead = buffer.get(position);
+		if (length == 1)
+			return lead == '\r' || lead == '\n' || (singleByte && lead == (byte) 0x85);
+		if (length == 2)
+			return lead == (byte) 0xC2 && buffer.get(position + 1) == (byte) 0x85;
+		return length == 3 && lead == (byte) 0xE2 && buffer.get(position + 1) == (byte) 0x80
+				&& (buffer.get(position + 2) == (byte) 0xA8 || buffer.get(position + 2) == (byte) 0xA9);
+	}
+}
@@ -9,6 +9,10 @@ public class Excerpt {
 	private String excerpt;
 	private String documentTitle;
 	private double docId;
+	// Lucene document number of the match that the title is read from once the excerpt is written
+	private int doc = -1;
+	// Line number of the document holding the content or -1 if the index has no aliases
+	private long contentId = -1;
 	private int score;
 
 	public Excerpt(String excerpt) {
@@ -32,6 +36,22 @@ public class Excerpt {
 		this.docId = docId;
 	}
 
+	public int getDoc() {
+		return doc;
+	}
+
+	public void setDoc(int doc) {
+		this.doc = doc;
+	}
+
+	public long getContentId() {
+		return contentId;
+	}
+
+	public void setContentId(long contentId) {
+		this.contentId = contentId;
+	}
+
 	public String getDocumentTitle() {
 		return documentTitle;
 	}
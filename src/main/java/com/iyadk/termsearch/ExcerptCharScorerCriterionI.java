@@ -13,6 +13,12 @@ public interface ExcerptCharScorerCriterionI {
 	 */
 	public ExcerptCharScorerCriterionI setPenalty(int penalty);
 
+	/**
+	 * Gets the amount added to the score
+	 * @return
+	 */
+	public int getPenalty();
+
 	/**
 	 * Sets a flag that this scorer is the last to be evaluated
 	 * @param isLast
@@ -42,14 +42,7 @@ public class ExcerptScorer {
 		} 
 		
 		for (int i = 0; i < excerpt.length(); i++){
-			char currChar = excerpt.charAt(i);
-			for (ExcerptCharScorerCriterionI criterion : charCriteria) {
-				int delta = criterion.score(currChar);
-				score += delta;
-				if (delta > 0 && criterion.isLast()) {
-					break;
-				}
-			}
+			score += scoreChar(excerpt.charAt(i));
 		}
 
 		excerpt.setScore(score);
@@ -57,4 +50,43 @@ public class ExcerptScorer {
 		return true;
 	}
 
+	private int scoreChar(char currChar) {
+		int score = 0;
+		for (ExcerptCharScorerCriterionI criterion : charCriteria) {
+			int delta = criterion.score(currChar);
+			score += delta;
+			if (delta > 0 && criterion.isLast()) {
+				break;
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Computes the lowest score that an excerpt matching the search string can be given.  Every such
+	 * excerpt contains the words of the search string so their characters are always scored.
+	 * 
+	 * @param searchString Term or phrase that the excerpts match
+	 * @return The lowest score or Integer.MIN_VALUE if a negative penalty leaves the score unbounded
+	 */
+	public int getMinimumScore(String searchString) {
+		for (ExcerptFullScorerCriterionI criterion : fullCriteria) {
+			if (criterion.getPenalty() < 0)
+				return Integer.MIN_VALUE;
+		}
+		for (ExcerptCharScorerCriterionI criterion : charCriteria) {
+			if (criterion.getPenalty() < 0)
+				return Integer.MIN_VALUE;
+		}
+
+		// The words are matched without the hyphens and periods that are removed from the query
+		String words = searchString.replace('-', ' ').replace(".", "");
+		int score = 1;
+		for (int i = 0; i < words.length(); i++) {
+			if (words.charAt(i) != ' ')
+				score += scoreChar(words.charAt(i));
+		}
+		return score;
+	}
+
 }
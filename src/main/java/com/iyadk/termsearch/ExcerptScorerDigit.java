@@ -33,6 +33,11 @@ public class ExcerptScorerDigit implements ExcerptCharScorerCriterionI {
 		return this;
 	}
 
+	@Override
+	public int getPenalty() {
+		return penalty;
+	}
+
 	@Override
 	public ExcerptCharScorerCriterionI setLast(boolean isLast) {
 		this.isLast = isLast;
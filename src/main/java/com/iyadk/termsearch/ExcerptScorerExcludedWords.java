@@ -28,6 +28,7 @@ public class ExcerptScorerExcludedWords implements ExcerptFullScorerCriterionI {
 		this.last = false;
 	}
 
+	@Override
 	public int getPenalty() {
 		return penalty;
 	}
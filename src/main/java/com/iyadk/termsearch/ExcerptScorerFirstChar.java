@@ -29,6 +29,7 @@ public class ExcerptScorerFirstChar implements ExcerptFullScorerCriterionI {
 		return new ExcerptScorerCriterionResult(0, false);
 	}
 
+	@Override
 	public int getPenalty() {
 		return penalty;
 	}
@@ -41,6 +41,11 @@ public class ExcerptScorerLength implements ExcerptFullScorerCriterionI {
 		return this;
 	}
 
+	@Override
+	public int getPenalty() {
+		return penalty;
+	}
+
 	@Override
 	public ExcerptFullScorerCriterionI setLast(boolean isLast) {
 		this.last = isLast;
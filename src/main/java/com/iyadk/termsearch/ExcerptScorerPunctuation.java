@@ -37,6 +37,11 @@ public class ExcerptScorerPunctuation implements ExcerptCharScorerCriterionI {
 		return this;
 	}
 
+	@Override
+	public int getPenalty() {
+		return penalty;
+	}
+
 	@Override
 	public ExcerptCharScorerCriterionI setLast(boolean isLast) {
 		this.isLast = isLast;
@@ -32,6 +32,11 @@ public class ExcerptScorerUppercase implements ExcerptCharScorerCriterionI {
 		return this;
 	}
 
+	@Override
+	public int getPenalty() {
+		return penalty;
+	}
+
 	@Override
 	public ExcerptCharScorerCriterionI setLast(boolean isLast) {
 		this.isLast = isLast;
@@ -7,18 +7,24 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.regex.PatternSyntaxException;
 
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriterConfig;
+
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
 @Command(name = "index")
 public class IndexCommand implements Callable<Integer> {
 	@Option(names={"-f", "--corpus"}, 
-			description="Path to the Corpus text to index ", 
+			description="Paths to the Corpus text to index: files, directories of files or globs (e.g. 'shards/*.txt'). "
+					+ "Lines are numbered across the files in the order given and by path within a directory or glob",
+			arity="1..*",
 			required=true)
-	private String corpusFile;
+	private List<String> corpusFiles;
 	
 	@Option(names={"-i", "--index", "--index-path"}, 
 			description="Path to create the index in (default: ${DEFAULT-VALUE})", 
@@ -39,6 +45,116 @@ public class IndexCommand implements Callable<Integer> {
 			defaultValue="4")
 	private int threads;
 
+	@Option(names={"--decompression-threads"},
+			description="Number of threads decompressing the blocks of a blocked gzip (BGZF) corpus file (default: ${DEFAULT-VALUE})",
+			defaultValue="2")
+	private int decompressionThreads;
+
+	@Option(names={"--corpus-reader"},
+			description="Method used to read the corpus: ${COMPLETION-CANDIDATES}. "
+					+ "MMAP memory maps the corpus and parses it from every indexing thread. "
+					+ "READ_AHEAD keeps several asynchronous reads ahead of the reader for remote storage such as NFS (default: ${DEFAULT-VALUE})",
+			defaultValue="STREAM")
+	private IndexCreator.CorpusReader corpusReader;
+
+	@Option(names={"--read-ahead-depth"},
+			description="Number of buffers the READ_AHEAD corpus reader reads ahead (default: ${DEFAULT-VALUE})",
+			defaultValue="8")
+	private int readAheadDepth;
+
+	@Option(names={"--read-ahead-buffer-kb"},
+			description="Kilobytes of every buffer the READ_AHEAD corpus reader reads ahead (default: ${DEFAULT-VALUE})",
+			defaultValue="4096")
+	private int readAheadBufferKB;
+
+	@Option(names={"--index-profile"},
+			description="Layout of the indexed content: ${COMPLETION-CANDIDATES}. "
+					+ "Smaller layouts trade index size and build time for highlighting time (default: ${DEFAULT-VALUE})",
+			defaultValue="FULL")
+	private IndexProfile indexProfile;
+
+	@Option(names={"--index-sort"},
+			description="Order of the documents in the index. Sorting by the document score lets searches that rank by the document score "
+					+ "stop early. Valid values: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})",
+			defaultValue="NONE")
+	private IndexCreator.IndexSort indexSort;
+
+	@Option(names={"--append"},
+			description="Add the corpus to an existing index instead of recreating it. "
+					+ "Lines are numbered after the last line of the existing index and existing titles keep their docId")
+	private boolean append;
+
+	@Option(names={"--dedup-content"},
+			description="Index the content shared by several lines once and index the other lines as aliases "
+					+ "that are credited with its matches")
+	private boolean dedupContent;
+
+	@Option(names={"--partitions"},
+			description="Number of partial indexes written in parallel and then added to the index (default: ${DEFAULT-VALUE})",
+			defaultValue="1")
+	private int partitions;
+
+	@Option(names={"--merge-segments"},
+			description="Number of segments to merge the index into once it is built, 1 or the number of search threads "
+					+ "for the fastest searches, 0 to skip (default: ${DEFAULT-VALUE})",
+			defaultValue="0")
+	private int mergeSegments;
+
+	@Option(names={"--title-memory"},
+			description="Megabytes of heap used to track the docId of every distinct title, and with --dedup-content of every distinct content, "
+					+ "before the tables are memory mapped (default: a quarter of the maximum heap)")
+	private Long titleMemory;
+
+	@Option(names={"--writer-tuning"},
+			description="Derive the index writer buffers and merge threads from the heap and cores (AUTO) or keep the Lucene defaults. "
+					+ "Valid values: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})",
+			defaultValue="AUTO")
+	private WriterTuning.Mode writerTuningMode;
+
+	@Option(names={"--ram-buffer-mb"},
+			description="Megabytes buffered by each index writer before flushing a segment (default: tuned)",
+			defaultValue="0")
+	private double ramBufferMB;
+
+	@Option(names={"--max-buffered-docs"},
+			description="Documents buffered by each index writer before flushing a segment (default: flush by RAM only)",
+			defaultValue="0")
+	private int maxBufferedDocs;
+
+	@Option(names={"--ram-per-thread-mb"},
+			description="Megabytes an indexing thread can buffer before its segment is forced to flush, below 2048 (default: tuned)",
+			defaultValue="0")
+	private int ramPerThreadMB;
+
+	@Option(names={"--merge-threads"},
+			description="Concurrent merges of each index writer (default: tuned)",
+			defaultValue="0")
+	private int mergeThreads;
+
+	@Option(names={"--max-merges"},
+			description="Pending merges of each index writer before indexing is stalled (default: tuned)",
+			defaultValue="0")
+	private int maxMerges;
+
+	@Option(names={"--metrics-interval"},
+			description="Seconds between reports of the indexing throughput, 0 to disable (default: ${DEFAULT-VALUE})",
+			defaultValue="10")
+	private int metricsInterval;
+
+	@Option(names={"--metrics-file"},
+			description="File to write the JSON summary of the indexing metrics to (default: ${DEFAULT-VALUE} in the working directory)",
+			paramLabel="FILE")
+	private String metricsFile = "index-metrics.json";
+
+	@Option(names={"--commit-interval"},
+			description="Seconds between commits of the index that an interrupted build can resume from, 0 to disable (default: ${DEFAULT-VALUE})",
+			defaultValue="0")
+	private int commitInterval;
+
+	@Option(names={"--resume"},
+			description="Resume an interrupted build from the last commit instead of recreating the index")
+	private boolean resume;
+
     @Option(names = { "-h", "--help" },
     		usageHelp = true,
     		description = "Displays this message")
@@ -49,15 +165,73 @@ public class IndexCommand implements Callable<Integer> {
 
 		SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
 
-		if (Files.exists(Paths.get(indexDir))) {
+		if ((resume || commitInterval > 0) && (corpusReader == IndexCreator.CorpusReader.MMAP || partitions > 1)) {
+			System.out.println("Resumable indexing requires the STREAM or READ_AHEAD corpus reader and a single partition.");
+			return 1;
+		}
+
+		if (readAheadDepth < 1 || readAheadBufferKB < 1) {
+			System.out.println("The read ahead depth and buffer size must be positive.");
+			return 1;
+		}
+
+		List<Path> corpusPaths;
+		try {
+			corpusPaths = CorpusFiles.expand(corpusFiles);
+		} catch (FileNotFoundException e) {
+			System.out.printf("The corpus file %s does not exist.", e.getMessage());
+			return 1;
+		}
+		if (corpusPaths.size() > 1)
+			System.out.printf("Indexing %d corpus files\n", corpusPaths.size());
+
+		if (corpusReader == IndexCreator.CorpusReader.MMAP && corpusPaths.stream().anyMatch(CorpusFiles::isCompressed)) {
+			System.out.println("Compressed corpus files cannot be memory mapped. Use the STREAM corpus reader.");
+			return 1;
+		}
+
+		WriterTuning writerTuning = new WriterTuning();
+		writerTuning.setMode(writerTuningMode);
+		writerTuning.setRamBufferMB(ramBufferMB);
+		writerTuning.setMaxBufferedDocs(maxBufferedDocs);
+		writerTuning.setRamPerThreadMB(ramPerThreadMB);
+		writerTuning.setMergeThreads(mergeThreads);
+		writerTuning.setMaxMerges(maxMerges);
+		try {
+			// Lucene validates the settings when they are applied to a writer configuration
+			writerTuning.resolve(Runtime.getRuntime().maxMemory(), Runtime.getRuntime().availableProcessors(), partitions, threads)
+					.apply(new IndexWriterConfig(), new ConcurrentMergeScheduler());
+		} catch (IllegalArgumentException e) {
+			System.out.printf("The index writer settings are invalid.\n %s", e.getMessage());
+			return 1;
+		}
+
+		if (!append && !resume && Files.exists(Paths.get(indexDir))) {
 			System.out.printf("Removing existing lucene index:%s\n", indexDir);
 			Files.walk(Paths.get(indexDir)).map(Path::toFile).forEach(File::delete);
 		}
 
-		IndexCreator indexCreator = new IndexCreator(corpusFile, indexDir);
+		IndexCreator indexCreator = new IndexCreator(corpusPaths, indexDir);
 
 		indexCreator.setDelimeter(delimeter);
 		indexCreator.setNumThreads(threads);
+		indexCreator.setCorpusReader(corpusReader);
+		indexCreator.setDecompressionThreads(decompressionThreads);
+		indexCreator.setReadAheadDepth(readAheadDepth);
+		indexCreator.setReadAheadBufferSize(readAheadBufferKB * 1024);
+		indexCreator.setIndexProfile(indexProfile);
+		indexCreator.setIndexSort(indexSort);
+		indexCreator.setAppend(append);
+		indexCreator.setDedupContent(dedupContent);
+		indexCreator.setPartitions(partitions);
+		indexCreator.setMergeSegments(mergeSegments);
+		if (titleMemory != null)
+			indexCreator.setTitleMemory(titleMemory);
+		indexCreator.setWriterTuning(writerTuning);
+		indexCreator.setMetricsInterval(metricsInterval);
+		indexCreator.setMetricsPath(Paths.get(metricsFile));
+		indexCreator.setResume(resume);
+		indexCreator.setCommitInterval(commitInterval);
 		try {
 			if (offsetLookupFile != null ) {
 				System.out.println("Parsing score offset file.");
@@ -80,7 +254,7 @@ public class IndexCommand implements Callable<Integer> {
 		try {
 			indexCreator.create();
 		} catch (FileNotFoundException e) {
-			System.out.printf("The corpus file %s does not exist.", corpusFile);
+			System.out.printf("The corpus file %s does not exist.", e.getMessage());
 			return 1;
 		}
 
@@ -7,17 +7,32 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.EnumMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import java.util.stream.Stream;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
@@ -25,41 +40,309 @@ import org.apache.lucene.document.DoubleDocValuesField;
 import org.apache.lucene.document.DoublePoint;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.DocValuesType;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 
 import com.iyadk.termsearch.ScoreOffsetRule.SearchTypeEnum;
 
 public class IndexCreator {
-	private Path corpusPath;
+	// Files of the corpus in the order their lines are numbered
+	private List<Path> corpusPaths;
 	private Path indexPath;
 	private Directory dirIndex;
 	private String delimeter;
+	private Pattern delimeterPattern;
 	private Analyzer analyzer;
 	private int numThreads;
 	private List<ScoreOffsetRule> scoreOffsetRules;
-	private ConcurrentHashMap<String, Double> documentIDs;
-	private static enum qKeys {
-		LINE, LINEID
+	private ScoreOffsetRuleSet scoreOffsetRuleSet;
+	private TitleIdMap documentIDs;
+	// Line number of the document that holds each distinct content when deduplicating
+	private TitleIdMap contentIDs;
+	// Heap shared by the title and content tables
+	private long titleMemoryBytes;
+	private boolean dedupContent;
+	private int decompressionThreads;
+	private int readAheadDepth;
+	private int readAheadBufferSize;
+	private CorpusReader corpusReader;
+	private IndexProfile indexProfile;
+	private boolean append;
+	private int partitions;
+	private int mergeSegments;
+	private boolean resume;
+	private long commitIntervalNanos;
+	// Byte offset of the corpus to start reading from and the lines after it that are already indexed
+	private long corpusOffset;
+	private List<long[]> indexedLines;
+	private IndexMetrics metrics;
+	private WriterTuning writerTuning;
+	private IndexSort indexSort;
+	private int metricsInterval;
+	private Path metricsPath;
+	// Line number of the first line read from the corpus and of the last line read
+	private long firstLineId;
+	private long lastLineId;
+
+	// Number of lines or documents handed to the indexing threads and the index writer at once
+	private static final int BATCH_SIZE = 256;
+	// Number of line batches buffered between the corpus reader and the indexing threads
+	private static final int QUEUE_BATCHES = 40;
+
+	/**
+	 * A batch of corpus lines and their line numbers passed from the corpus reader to the indexing threads
+	 */
+	private static class LineBatch {
+		private final String[] lines;
+		private final long[] lineIds;
+		private int size;
+
+		// Order of the batch in the corpus and the range of corpus lines it covers
+		private long sequence;
+		private final long startLineId;
+		private long endLineId;
+		private long endOffset;
+
+		LineBatch(int capacity, long startLineId) {
+			lines = new String[capacity];
+			lineIds = new long[capacity];
+			this.startLineId = startLineId;
+		}
+
+		/**
+		 * @return True if the batch is full after adding the line
+		 */
+		boolean add(String line, long lineId) {
+			lines[size] = line;
+			lineIds[size++] = lineId;
+			return isFull();
+		}
+
+		boolean isFull() {
+			return size == lines.length;
+		}
+
+		/**
+		 * Closes the range of corpus lines covered by the batch
+		 * @param endLineId Line number of the last line read into the batch
+		 * @param endOffset Byte offset of the corpus following the last line
+		 * @param checkpoint Checkpoint that assigns the batch its sequence
+		 */
+		LineBatch end(long endLineId, long endOffset, CorpusCheckpoint checkpoint) {
+			this.endLineId = endLineId;
+			this.endOffset = endOffset;
+			this.sequence = checkpoint.nextSequence();
+			return this;
+		}
+	}
+
+	// Key of the index commit metadata holding the line number of the last corpus line
+	public static final String LAST_LINE_ID_KEY = "lastLineId";
+
+	// Keys of the commit metadata of checkpoints holding the byte offset to resume reading the corpus from
+	// and the ranges of lines after it that are already indexed
+	public static final String CORPUS_OFFSET_KEY = "corpusOffset";
+	public static final String INDEXED_LINES_KEY = "indexedLines";
+
+	// Key of the index commit metadata telling whether duplicate contents were indexed as aliases
+	public static final String DEDUP_CONTENT_KEY = "dedupContent";
+	// Field holding the line number of the document whose content a document (or its alias) has
+	public static final String CONTENT_ID_FIELD = "contentId";
+	// Fields holding the hash and check hash of the content of a document (or its alias) so that
+	// appending to the index keeps deduplicating against the contents it already has
+	public static final String CONTENT_HASH_FIELD = "contentHash";
+	public static final String CONTENT_CHECK_FIELD = "contentCheck";
+
+	// Stored field read for the titles of documents indexed without title doc values
+	private static final Set<String> TITLE_FIELDS = Collections.singleton("title");
+
+	// Tells the indexing threads that the whole corpus was read
+	private static final LineBatch END_OF_FILE = new LineBatch(0, 0);
+
+	/**
+	 * Tracks the corpus position up to which every line batch is indexed so that commits record
+	 * where indexing resumes.  Batches indexed ahead of that position are recorded as ranges of
+	 * lines to skip when resuming.
+	 */
+	private static class CorpusCheckpoint {
+		private long offset;
+		private long lineId;
+		private long sequence;
+		private long completedSequence;
+		private final TreeMap<Long, LineBatch> completedAhead;
+		// Ranges of lines after the position that were indexed before resuming
+		private final List<long[]> indexedLines;
+
+		/**
+		 * @param offset Byte offset of the corpus up to which lines are indexed
+		 * @param lineId Line number of the last line indexed
+		 * @param indexedLines Ranges of lines following the position that were already indexed
+		 */
+		CorpusCheckpoint(long offset, long lineId, List<long[]> indexedLines) {
+			this.offset = offset;
+			this.lineId = lineId;
+			this.completedAhead = new TreeMap<>();
+			this.indexedLines = indexedLines;
+		}
+
+		/**
+		 * @return The sequence of the next batch queued by the reader
+		 */
+		long nextSequence() {
+			return sequence++;
+		}
+
+		/**
+		 * @return True if the line was indexed before resuming
+		 */
+		boolean isIndexed(long line) {
+			for (long[] range : indexedLines) {
+				if (line >= range[0] && line <= range[1])
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Advances the position past every batch that is indexed in corpus order
+		 */
+		synchronized void completed(LineBatch lineBatch) {
+			// Only the range of the batch is needed once it is indexed
+			lineBatch.size = 0;
+			Arrays.fill(lineBatch.lines, null);
+			completedAhead.put(lineBatch.sequence, lineBatch);
+			while (!completedAhead.isEmpty() && completedAhead.firstKey() == completedSequence) {
+				LineBatch completedBatch = completedAhead.pollFirstEntry().getValue();
+				offset = completedBatch.endOffset;
+				lineId = completedBatch.endLineId;
+				completedSequence++;
+			}
+		}
+
+		/**
+		 * Adds the position to resume from and the lines indexed ahead of it to the commit metadata
+		 */
+		synchronized void addTo(Map<String, String> commitData) {
+			StringBuilder ranges = new StringBuilder();
+			for (LineBatch completedBatch : completedAhead.values()) {
+				ranges.append(completedBatch.startLineId).append('-').append(completedBatch.endLineId).append(',');
+			}
+			for (long[] range : indexedLines) {
+				if (range[1] > lineId)
+					ranges.append(range[0]).append('-').append(range[1]).append(',');
+			}
+
+			commitData.put(CORPUS_OFFSET_KEY, Long.toString(offset));
+			commitData.put(LAST_LINE_ID_KEY, Long.toString(lineId));
+			commitData.put(INDEXED_LINES_KEY, ranges.toString());
+		}
+	}
+
+	/**
+	 * Methods used to read the corpus
+	 * STREAM reads the corpus sequentially and hands lines to the indexing threads through a queue
+	 * MMAP memory maps the corpus and has every indexing thread parse its own chunks
+	 * READ_AHEAD reads like STREAM while several asynchronous reads fill buffers ahead of the reader
+	 * to hide the latency of remote storage
+	 */
+	public static enum CorpusReader {
+		STREAM, MMAP, READ_AHEAD
+	}
+
+	/**
+	 * Orders of the documents within the index segments
+	 * NONE keeps the corpus order
+	 * SCORE_ASCENDING and SCORE_DESCENDING sort by the document score so that searches ranking by the
+	 * document score can stop collecting once they have enough matches
+	 */
+	public static enum IndexSort {
+		NONE(null), SCORE_ASCENDING(new Sort(new SortField("score", SortField.Type.DOUBLE, false))),
+		SCORE_DESCENDING(new Sort(new SortField("score", SortField.Type.DOUBLE, true)));
+
+		private final Sort sort;
+
+		private IndexSort(Sort sort) {
+			this.sort = sort;
+		}
+
+		/**
+		 * @return The sort of the index writer or null to keep the corpus order
+		 */
+		public Sort getSort() {
+			return sort;
+		}
+
+		/**
+		 * @return The order matching the sort of an index segment
+		 */
+		public static IndexSort valueOf(Sort sort) {
+			for (IndexSort indexSort : values()) {
+				if (indexSort.sort == null ? sort == null : indexSort.sort.equals(sort))
+					return indexSort;
+			}
+			throw new IllegalArgumentException("Unsupported index sort " + sort);
+		}
 	}
 
 	/*
 	 * @param corpusPath Path to the corpus text
 	 */
 	public IndexCreator(String corpus) throws IOException {
-		corpusPath = Paths.get(corpus);
+		corpusPaths = new ArrayList<>();
+		corpusPaths.add(Paths.get(corpus));
 		indexPath = Paths.get("./lucene-index");
 		analyzer = UniqueAnalyzer.getInstance().analyzer;
-		delimeter = ".txt:";
+		setDelimeter(".txt:");
 		numThreads=1;
 		scoreOffsetRules = new LinkedList<>();
-		documentIDs = new ConcurrentHashMap<>();
+		scoreOffsetRuleSet = new ScoreOffsetRuleSet(scoreOffsetRules);
+		// Keep the titles and contents within a quarter of the heap unless configured otherwise
+		titleMemoryBytes = Runtime.getRuntime().maxMemory() / 4;
+		documentIDs = new TitleIdMap(titleMemoryBytes);
+		contentIDs = new TitleIdMap(titleMemoryBytes);
+		dedupContent = false;
+		decompressionThreads = 2;
+		readAheadDepth = 8;
+		readAheadBufferSize = 4 * 1048576;
+		corpusReader = CorpusReader.STREAM;
+		indexProfile = IndexProfile.FULL;
+		append = false;
+		partitions = 1;
+		mergeSegments = 0;
+		resume = false;
+		commitIntervalNanos = 0;
+		corpusOffset = 0;
+		indexedLines = new ArrayList<>();
+		metrics = new IndexMetrics();
+		writerTuning = new WriterTuning();
+		indexSort = IndexSort.NONE;
+		metricsInterval = 0;
+		metricsPath = null;
+		firstLineId = 1;
 	}
 	
 	public IndexCreator(String corpus, String index) throws IOException {
@@ -67,12 +350,35 @@ public class IndexCreator {
 		indexPath = Paths.get(index);
 	}
 
+	/*
+	 * @param corpusPaths Paths to the files of the corpus in the order their lines are numbered
+	 * @param index Path to create the index in
+	 */
+	public IndexCreator(List<Path> corpusPaths, String index) throws IOException {
+		this(corpusPaths.get(0).toString(), index);
+		setCorpusPaths(corpusPaths);
+	}
+
+	public List<Path> getCorpusPaths() {
+		return corpusPaths;
+	}
+
+	/**
+	 * The lines of the files are numbered as if the files were read one after another.
+	 * The last line of every file ends with the file unless it is empty.
+	 * @param corpusPaths Paths to the files of the corpus in the order their lines are numbered
+	 */
+	public void setCorpusPaths(List<Path> corpusPaths) {
+		this.corpusPaths = new ArrayList<>(corpusPaths);
+	}
+
 	public String getDelimeter() {
 		return delimeter;
 	}
 
-	public void setDelimeter(String delimeter) {
+	public void setDelimeter(String delimeter) throws PatternSyntaxException {
 		this.delimeter = delimeter;
+		this.delimeterPattern = Pattern.compile(delimeter);
 	}
 	
 	public int getNumThreads() {
@@ -82,6 +388,209 @@ public class IndexCreator {
 	public void setNumThreads(int numThreads) {
 		this.numThreads = numThreads;
 	}
+
+	public CorpusReader getCorpusReader() {
+		return corpusReader;
+	}
+
+	public void setCorpusReader(CorpusReader corpusReader) {
+		this.corpusReader = corpusReader;
+	}
+
+	public IndexProfile getIndexProfile() {
+		return indexProfile;
+	}
+
+	/**
+	 * Sets the layout of the content field which determines how excerpts are highlighted
+	 * @param indexProfile The content field layout
+	 */
+	public void setIndexProfile(IndexProfile indexProfile) {
+		this.indexProfile = indexProfile;
+	}
+
+	public boolean isAppend() {
+		return append;
+	}
+
+	/**
+	 * Add the corpus to the existing index rather than recreating it.  Corpus lines are numbered
+	 * after the last line of the existing index and existing titles keep their docId.
+	 * @param append Set to true to append to an existing index
+	 */
+	public void setAppend(boolean append) {
+		this.append = append;
+	}
+
+	public int getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * Build the index as independent partial indexes that are written in parallel and
+	 * added to the index once the corpus is indexed
+	 * @param partitions Number of partial indexes (1 writes directly to the index)
+	 */
+	public void setPartitions(int partitions) {
+		this.partitions = partitions;
+	}
+
+	public long getTitleMemory() {
+		return titleMemoryBytes / 1048576;
+	}
+
+	/**
+	 * @param titleMemory Megabytes of heap the tables of distinct titles and contents share before they are memory mapped
+	 */
+	public void setTitleMemory(long titleMemory) {
+		this.titleMemoryBytes = titleMemory * 1048576;
+	}
+
+	/*
+	 * Splits the heap of the tables evenly between the titles and the contents when both are tracked
+	 */
+	private void splitTitleMemory() {
+		documentIDs.setMaxHeapBytes(dedupContent ? titleMemoryBytes / 2 : titleMemoryBytes);
+		contentIDs.setMaxHeapBytes(titleMemoryBytes / 2);
+	}
+
+	public int getDecompressionThreads() {
+		return decompressionThreads;
+	}
+
+	/**
+	 * @param decompressionThreads Number of threads decompressing the blocks of a BGZF corpus file
+	 */
+	public void setDecompressionThreads(int decompressionThreads) {
+		this.decompressionThreads = decompressionThreads;
+	}
+
+	public int getReadAheadDepth() {
+		return readAheadDepth;
+	}
+
+	/**
+	 * @param readAheadDepth Number of buffers read ahead by the READ_AHEAD corpus reader
+	 */
+	public void setReadAheadDepth(int readAheadDepth) {
+		this.readAheadDepth = readAheadDepth;
+	}
+
+	public int getReadAheadBufferSize() {
+		return readAheadBufferSize;
+	}
+
+	/**
+	 * @param readAheadBufferSize Size in bytes of every buffer read ahead by the READ_AHEAD corpus reader
+	 */
+	public void setReadAheadBufferSize(int readAheadBufferSize) {
+		this.readAheadBufferSize = readAheadBufferSize;
+	}
+
+	public boolean isDedupContent() {
+		return dedupContent;
+	}
+
+	/**
+	 * Index the content shared by several lines only once.  The other lines are indexed as aliases with
+	 * their title, docId and score but no content so that their title can be credited with the matches.
+	 * @param dedupContent Set to true to index every distinct content once
+	 */
+	public void setDedupContent(boolean dedupContent) {
+		this.dedupContent = dedupContent;
+	}
+
+	public boolean isResume() {
+		return resume;
+	}
+
+	/**
+	 * Continue indexing from the last checkpoint committed to the index instead of recreating it
+	 * @param resume Set to true to resume an interrupted build
+	 */
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+
+	public int getCommitInterval() {
+		return (int) TimeUnit.NANOSECONDS.toSeconds(commitIntervalNanos);
+	}
+
+	/**
+	 * @param commitInterval Seconds between commits of the index that can be resumed from (0 to disable)
+	 */
+	public void setCommitInterval(int commitInterval) {
+		this.commitIntervalNanos = TimeUnit.SECONDS.toNanos(commitInterval);
+	}
+
+	/*
+	 * Commits as often as every batch of lines so that tests can interrupt a build between commits
+	 */
+	void setCommitIntervalNanos(long commitIntervalNanos) {
+		this.commitIntervalNanos = commitIntervalNanos;
+	}
+
+	public IndexSort getIndexSort() {
+		return indexSort;
+	}
+
+	/**
+	 * @param indexSort Order of the documents within the index segments
+	 */
+	public void setIndexSort(IndexSort indexSort) {
+		this.indexSort = indexSort;
+	}
+
+	public WriterTuning getWriterTuning() {
+		return writerTuning;
+	}
+
+	/**
+	 * @param writerTuning Buffering and merging settings of the index writers
+	 */
+	public void setWriterTuning(WriterTuning writerTuning) {
+		this.writerTuning = writerTuning;
+	}
+
+	public int getMetricsInterval() {
+		return metricsInterval;
+	}
+
+	/**
+	 * @param metricsInterval Seconds between reports of the indexing throughput (0 to disable)
+	 */
+	public void setMetricsInterval(int metricsInterval) {
+		this.metricsInterval = metricsInterval;
+	}
+
+	public Path getMetricsPath() {
+		return metricsPath;
+	}
+
+	/**
+	 * @param metricsPath File the JSON summary of the build is written to (null to skip)
+	 */
+	public void setMetricsPath(Path metricsPath) {
+		this.metricsPath = metricsPath;
+	}
+
+	/**
+	 * @return The metrics of the last build
+	 */
+	public IndexMetrics getMetrics() {
+		return metrics;
+	}
+
+	public int getMergeSegments() {
+		return mergeSegments;
+	}
+
+	/**
+	 * @param mergeSegments Number of segments to force merge the index to once it is built (0 to skip)
+	 */
+	public void setMergeSegments(int mergeSegments) {
+		this.mergeSegments = mergeSegments;
+	}
 	
 	public void setOffsetLookup(File offsetLookupFile)
 			throws IOException, FileNotFoundException, PatternSyntaxException, NumberFormatException {
@@ -123,6 +632,9 @@ public class IndexCreator {
 		bufferedReader.close();
 		fileInputStream.close();
 		fileInputStream.close();
+
+		// Compile the rules once so that each title is matched against all of them in a single pass
+		scoreOffsetRuleSet = new ScoreOffsetRuleSet(scoreOffsetRules);
 	}
 
 	/**
@@ -138,179 +650,718 @@ public class IndexCreator {
 	}
 	
 	public void create() throws FileNotFoundException, IOException{
-		InputStream fileInputStream = new FileInputStream(corpusPath.toFile());
-		InputStreamReader fileInputStreamReader = new InputStreamReader(fileInputStream);
-		BufferedReader bufferedReader = new BufferedReader(fileInputStreamReader, 262144);
+		if (resume && !append && isIndexComplete()) {
+			System.out.println("The index was completed and there is nothing to resume");
+			return;
+		}
 
-		dirIndex = new MMapDirectory(indexPath);
+		for (Path corpusPath : corpusPaths) {
+			if (!Files.isRegularFile(corpusPath))
+				throw new FileNotFoundException(corpusPath.toString());
+		}
 
-		// Increase segments per tier to improve indexing performance
-		TieredMergePolicy mergePolicy = new TieredMergePolicy();
-		mergePolicy.setSegmentsPerTier(20);
-		
-		IndexWriterConfig writerConfig = new IndexWriterConfig(analyzer);
-		writerConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-		// Optimization based lucene documentation
-		writerConfig.setUseCompoundFile(false);
-		writerConfig.setMergePolicy(mergePolicy);
+		metrics = new IndexMetrics();
+		metrics.start(metricsInterval);
+		System.out.printf("Index writer %s" + System.lineSeparator(), resolveWriterTuning());
 
-		IndexWriter writer = new IndexWriter(dirIndex, writerConfig);
+		if (corpusReader == CorpusReader.MMAP) {
+			for (Path corpusPath : corpusPaths) {
+				if (CorpusFiles.isCompressed(corpusPath))
+					throw new IllegalArgumentException("The compressed corpus file " + corpusPath + " cannot be memory mapped");
+			}
+			try (MappedCorpusReader mappedCorpusReader = new MappedCorpusReader(corpusPaths)) {
+				IndexWriter writer = openWriter();
+				IndexWriter[] writers = openPartitionWriters(writer);
+				readMappedCorpus(mappedCorpusReader, writers, new IndexSchema());
+				mergePartitions(writer, writers);
+				finalizeIndex(writer);
+				closeWriter(writer);
+			}
+			return;
+		}
+
+		IndexWriter writer = openWriter();
+		IndexWriter[] writers = openPartitionWriters(writer);
 		IndexSchema schema = new IndexSchema();
 
+		// Resume reading after the last checkpoint
+		CorpusCheckpoint checkpoint = new CorpusCheckpoint(corpusOffset, firstLineId - 1, indexedLines);
+		// Commits wait for the threads to finish the batches they are indexing
+		ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
+
 		class ThreadedIndexWriter implements Runnable {
-			private BlockingQueue<EnumMap<qKeys,String>> queue;
+			private BlockingQueue<LineBatch> queue;
+			private IndexWriter writer;
 
-			ThreadedIndexWriter(BlockingQueue<EnumMap<qKeys,String>> queue) {
+			ThreadedIndexWriter(BlockingQueue<LineBatch> queue, IndexWriter writer) {
 				this.queue = queue;
+				this.writer = writer;
 			}
 
 			@Override
 			public void run() {
+				DocumentBatch documents = new DocumentBatch(writer, schema);
 				while (true) {
-					String line;
-					String lineId;
-					EnumMap<qKeys,String> queueItem;
+					LineBatch lineBatch;
 
+					long waitStart = System.nanoTime();
 					try {
-						queueItem = queue.take();
-						line = queueItem.get(qKeys.LINE);
-						lineId = queueItem.get(qKeys.LINEID);
+						lineBatch = queue.take();
 					} catch (InterruptedException e1) {
 						break;
 					}
+					metrics.consumerStallNanos.add(System.nanoTime() - waitStart);
 
-					if (line.contentEquals("END OF FILE")) {
+					if (lineBatch == END_OF_FILE) {
 						break;
 					}
 
-					// Print progress for every 100000 queue items
-					if ( lineId.endsWith("00000") ) {
-						System.out.printf("Processing line %s" + System.lineSeparator(), lineId);
-					}
-
-					String splitLine[] = line.split(delimeter, 2);
-					if (splitLine.length < 2) {
-						System.out.printf("Line %s of corpus is not properly formatted: " + System.lineSeparator()
-								+ "\t%s" + System.lineSeparator(), lineId, line.substring(0,Math.min(line.length(), 100)));
-						continue;
-					}
-
-					String docTitle = splitLine[0];
-					String docContent = splitLine[1];
-					
-					// Get the document score from the document title
-					double docScore;
-					try {
-						docScore = parseDocumentScore(docTitle);
-					} catch (NumberFormatException | StringIndexOutOfBoundsException e) {
-						System.out.printf("Unable to parse score from line %s of corpus: " + System.lineSeparator()
-								+ "\t%s" + System.lineSeparator(), lineId, line.substring(0,Math.min(line.length(), 100)));
-						continue;
-					}
-					
-					boolean addDocument = true;
-					for (ScoreOffsetRule scoreOffsetRule :	scoreOffsetRules) {
-						if (scoreOffsetRule.applies(docTitle) == false)
-							continue;
-
-						// Skip documents that match with a score adjustment of 0
-						if (scoreOffsetRule.scoreAdjustment == 0) {
-							addDocument = false;
-							break;
-						}
-						
-						docScore = docScore + scoreOffsetRule.scoreAdjustment;
-
-						if (scoreOffsetRule.stopAfter)
-							break;
-					}
-
-					// Add the document to the index
+					commitLock.readLock().lock();
 					try {
-						if (addDocument) {
-							Double docId = documentIDs.putIfAbsent(docTitle, Double.parseDouble(lineId));
-							if (docId == null)
-								docId = Double.parseDouble(lineId);
-							writer.addDocument(schema.createDocument(docTitle, docContent, docScore, docId ));
+						for (int i = 0; i < lineBatch.size; i++) {
+							indexLine(documents, lineBatch.lines[i], lineBatch.lineIds[i]);
 						}
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
+						// The batch must be in the writer before it is part of a checkpoint
+						documents.flush();
+						checkpoint.completed(lineBatch);
+					} finally {
+						commitLock.readLock().unlock();
 					}
 				}
 	        }
 		}
 
-		// Create a queue to receive lines from the file that will be consumed by the threads
-		BlockingQueue<EnumMap<qKeys, String>> dataQueue = new ArrayBlockingQueue<>(10000);
+		// Create a queue to receive batches of lines from the file that will be consumed by the threads
+		BlockingQueue<LineBatch> dataQueue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+		metrics.setQueueDepth(dataQueue::size);
 
 		// Spawn the thread pool of consumers for the queue
 		ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
 		for(int i=0; i < numThreads; i++) {
-			threadPool.execute(new ThreadedIndexWriter(dataQueue));
-		}
-
-		// Read the file byte by byte to parse out lines based on \n
-		// This ignores \r characters since the corpus can be malformed
-		StringBuilder line = new StringBuilder(4096);
-		long lineCount = 1;
-		int currentChar;
-		while((currentChar = bufferedReader.read()) > -1) {
-			if (currentChar == '\n') {
-				// Create a queue item containing the line and the line count
-				addItemToQueue(line, lineCount, dataQueue);
-				// Clear the line to prepare to read a new line
-				line = new StringBuilder(4096);
-				lineCount++;
+			// Each thread writes its share of the corpus to a partition when building partitioned
+			threadPool.execute(new ThreadedIndexWriter(dataQueue, writers[i % writers.length]));
+		}
+
+		// Read the files in blocks of bytes to parse out lines based on \n
+		// This keeps \r characters since the corpus can be malformed
+		// Offsets are positions in the files as if they were concatenated
+		Charset charset = Charset.defaultCharset();
+		byte[] buffer = new byte[262144];
+		byte[] line = new byte[4096];
+		long fileOffset = 0;
+		long lineCount = firstLineId;
+		long readerStart = System.nanoTime();
+		long lastCommitTime = readerStart;
+		int readAhead = corpusReader == CorpusReader.READ_AHEAD ? readAheadDepth : 0;
+		LineBatch lineBatch = new LineBatch(BATCH_SIZE, lineCount);
+		for (Path corpusPath : corpusPaths) {
+			// Skip the files that were read before the last checkpoint
+			// The size of a compressed file is only known once it is decompressed
+			if (!CorpusFiles.isCompressed(corpusPath) && fileOffset + Files.size(corpusPath) <= corpusOffset) {
+				fileOffset += Files.size(corpusPath);
 				continue;
 			}
 
-			line.append((char)currentChar);
-		}
-		// Add the last line to the queue because it might not be terminated by \n
-		addItemToQueue(line, lineCount, dataQueue);
+			// Compressed files are decompressed on other threads while their lines are parsed here
+			try (InputStream corpusStream = CorpusFiles.open(corpusPath, decompressionThreads, readAhead, readAheadBufferSize)) {
+				long offset = fileOffset + skipFully(corpusStream, corpusOffset - fileOffset);
+				int lineLength = 0;
+				int read;
+				while (true) {
+					// Time spent waiting for the corpus rather than parsing it
+					long readStart = System.nanoTime();
+					read = corpusStream.read(buffer);
+					metrics.ioWaitNanos.add(System.nanoTime() - readStart);
+					if (read < 0)
+						break;
+					metrics.bytes.add(read);
+					for (int i = 0; i < read; i++) {
+						if (buffer[i] != '\n') {
+							if (lineLength == line.length)
+								line = Arrays.copyOf(line, line.length * 2);
+							line[lineLength++] = buffer[i];
+							continue;
+						}
 
-		// Close the buffers since we don't need them
-	    bufferedReader.close();
-	    fileInputStream.close();
+						// Add the line and the line count to the batch unless it was indexed before resuming
+						if (!checkpoint.isIndexed(lineCount))
+							lineBatch.add(new String(line, 0, lineLength, charset), lineCount);
+						lineLength = 0;
+
+						// Queue the batch once it is full
+						if (lineBatch.isFull()) {
+							addBatchToQueue(lineBatch.end(lineCount, offset + i + 1, checkpoint), dataQueue);
+							lineBatch = new LineBatch(BATCH_SIZE, lineCount + 1);
+
+							if (commitIntervalNanos > 0 && System.nanoTime() - lastCommitTime >= commitIntervalNanos) {
+								commitCheckpoint(writer, checkpoint, commitLock);
+								lastCommitTime = System.nanoTime();
+							}
+						}
+						lineCount++;
+					}
+					offset += read;
+				}
+
+				// The last line of the file might not be terminated by \n
+				if (lineLength > 0) {
+					if (!checkpoint.isIndexed(lineCount))
+						lineBatch.add(new String(line, 0, lineLength, charset), lineCount);
+					if (lineBatch.isFull()) {
+						addBatchToQueue(lineBatch.end(lineCount, offset, checkpoint), dataQueue);
+						lineBatch = new LineBatch(BATCH_SIZE, lineCount + 1);
+					}
+					lineCount++;
+				}
+				fileOffset = offset;
+			}
+		}
+		addBatchToQueue(lineBatch.end(lineCount - 1, fileOffset, checkpoint), dataQueue);
+		lastLineId = lineCount - 1;
 
 	    // Poison the dataQueue to tell threads to stop
 	    // There must be one poison pill per thread
-		EnumMap<qKeys,String> poisonPill = new EnumMap<>(qKeys.class);
-		poisonPill.put(qKeys.LINE, "END OF FILE");
-		poisonPill.put(qKeys.LINEID, "");
-		try {
-			for(int i=0; i < numThreads; i++) {
-				dataQueue.put(poisonPill);
-			}
-		} catch (InterruptedException e) {
-			System.out.println("Unable to add poison pills to queue.");
+		for(int i=0; i < numThreads; i++) {
+			addBatchToQueue(END_OF_FILE, dataQueue);
 		}
+		// Waiting for room for the poison pills is part of the reader's stalls
+		metrics.readerNanos.add(System.nanoTime() - readerStart);
 
 	    // Wait for all thread to terminate
 	    threadPool.shutdown();
-	    while (!threadPool.isTerminated()) { }
+		try {
+			while (!threadPool.awaitTermination(1, TimeUnit.SECONDS)) { }
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while indexing the corpus", e);
+		}
+
+		mergePartitions(writer, writers);
+		finalizeIndex(writer);
+		closeWriter(writer);
+	}
+
+	/**
+	 * Skips the bytes of the stream that precede the checkpoint
+	 * 
+	 * @param stream The stream of a corpus file
+	 * @param bytes The number of bytes to skip (none if negative)
+	 * @return The number of bytes skipped which is less than requested at the end of the stream
+	 */
+	private static long skipFully(InputStream stream, long bytes) throws IOException {
+		long skipped = 0;
+		while (skipped < bytes) {
+			long skip = stream.skip(bytes - skipped);
+			if (skip <= 0) {
+				// Skip can return 0 before the end of the stream
+				if (stream.read() < 0)
+					break;
+				skip = 1;
+			}
+			skipped += skip;
+		}
+		return skipped;
+	}
+
+	/**
+	 * Commits the documents indexed so far along with the corpus position to resume from
+	 * 
+	 * @param writer The index writer
+	 * @param checkpoint The position up to which the corpus was indexed
+	 * @param commitLock Lock that prevents threads from indexing while committing
+	 */
+	private void commitCheckpoint(IndexWriter writer, CorpusCheckpoint checkpoint, ReentrantReadWriteLock commitLock)
+			throws IOException {
+		commitLock.writeLock().lock();
+		try {
+			Map<String, String> commitData = getCommitData();
+			checkpoint.addTo(commitData);
+			writer.setLiveCommitData(commitData.entrySet());
+			writer.commit();
+			System.out.printf("Committed the index up to line %s" + System.lineSeparator(), commitData.get(LAST_LINE_ID_KEY));
+		} finally {
+			commitLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return True if the index exists and was not interrupted after a checkpoint
+	 */
+	private boolean isIndexComplete() throws IOException {
+		try (Directory directory = new MMapDirectory(indexPath)) {
+			if (!DirectoryReader.indexExists(directory))
+				return false;
+			return !SegmentInfos.readLatestCommit(directory).getUserData().containsKey(CORPUS_OFFSET_KEY);
+		}
+	}
+
+	/**
+	 * Opens the index writer on the memory mapped index directory
+	 */
+	private IndexWriter openWriter() throws IOException {
+		// Measure the flushes of the writer
+		dirIndex = metrics.wrapDirectory(new MMapDirectory(indexPath));
 
-	    // Release the index and memory mapped directory
+		splitTitleMemory();
+		boolean appendIndex = (append || resume) && DirectoryReader.indexExists(dirIndex);
+		if (appendIndex) {
+			try (DirectoryReader reader = DirectoryReader.open(dirIndex)) {
+				readExistingIndex(reader);
+			}
+			// The existing index decides whether the contents are tracked too
+			splitTitleMemory();
+		}
+
+		return new IndexWriter(dirIndex,
+				createWriterConfig(appendIndex ? IndexWriterConfig.OpenMode.APPEND : IndexWriterConfig.OpenMode.CREATE));
+	}
+
+	/**
+	 * Creates the configuration shared by the index writer and the partition writers
+	 * @param openMode Whether the index is created or appended to
+	 */
+	private IndexWriterConfig createWriterConfig(IndexWriterConfig.OpenMode openMode) {
+		// Increase segments per tier to improve indexing performance
+		TieredMergePolicy mergePolicy = new TieredMergePolicy();
+		mergePolicy.setSegmentsPerTier(20);
+		
+		IndexWriterConfig writerConfig = new IndexWriterConfig(analyzer);
+		writerConfig.setOpenMode(openMode);
+		// Optimization based lucene documentation
+		writerConfig.setUseCompoundFile(false);
+		writerConfig.setMergePolicy(mergePolicy);
+		// Measure the merges of every writer
+		ConcurrentMergeScheduler mergeScheduler = metrics.createMergeScheduler();
+		writerConfig.setMergeScheduler(mergeScheduler);
+		resolveWriterTuning().apply(writerConfig, mergeScheduler);
+		if (indexSort.getSort() != null)
+			writerConfig.setIndexSort(indexSort.getSort());
+
+		return writerConfig;
+	}
+
+	/**
+	 * @return The settings of each writer for the heap and cores of this machine
+	 */
+	private WriterTuning resolveWriterTuning() {
+		return writerTuning.resolve(Runtime.getRuntime().maxMemory(), Runtime.getRuntime().availableProcessors(),
+				partitions, numThreads);
+	}
+
+	/**
+	 * Opens an independent writer for every partition when building partitioned so that
+	 * threads don't contend on flushing and merging a single index.
+	 * Otherwise, every thread shares the index writer.
+	 * 
+	 * @param writer The index writer
+	 * @return The writers that documents are added to
+	 */
+	private IndexWriter[] openPartitionWriters(IndexWriter writer) throws IOException {
+		IndexWriter[] partitionWriters = new IndexWriter[] { writer };
+		if (partitions > 1) {
+			partitionWriters = new IndexWriter[partitions];
+			for (int i = 0; i < partitions; i++) {
+				Path partitionPath = getPartitionPath(i);
+				deleteDirectory(partitionPath);
+				partitionWriters[i] = new IndexWriter(metrics.wrapDirectory(new MMapDirectory(partitionPath)),
+						createWriterConfig(IndexWriterConfig.OpenMode.CREATE));
+			}
+		}
+
+		IndexWriter[] writers = partitionWriters;
+		metrics.setWriterRamBytes(() -> {
+			long ramBytes = 0;
+			for (IndexWriter partitionWriter : writers) {
+				// Partition writers are closed once they are added to the index
+				if (partitionWriter.isOpen())
+					ramBytes += partitionWriter.ramBytesUsed();
+			}
+			return ramBytes;
+		});
+		return partitionWriters;
+	}
+
+	/**
+	 * Adds the partitions to the index and removes them
+	 * 
+	 * @param writer The index writer
+	 * @param partitionWriters The writers returned by openPartitionWriters
+	 */
+	private void mergePartitions(IndexWriter writer, IndexWriter[] partitionWriters) throws IOException {
+		if (partitionWriters.length == 1 && partitionWriters[0] == writer)
+			return;
+
+		Directory[] partitionDirs = new Directory[partitionWriters.length];
+		for (int i = 0; i < partitionWriters.length; i++) {
+			partitionWriters[i].close();
+			partitionDirs[i] = partitionWriters[i].getDirectory();
+		}
+
+		System.out.printf("Merging %d partitions into the index" + System.lineSeparator(), partitionDirs.length);
+		writer.addIndexes(partitionDirs);
+
+		for (int i = 0; i < partitionDirs.length; i++) {
+			partitionDirs[i].close();
+			deleteDirectory(getPartitionPath(i));
+		}
+	}
+
+	/**
+	 * Force merges the index into the requested number of segments once every document is added.
+	 * The index is searched many more times than it is built so the merge cost is paid once to
+	 * have every query walk a few large segments instead of many small ones.
+	 * 
+	 * @param writer The index writer
+	 */
+	private void finalizeIndex(IndexWriter writer) throws IOException {
+		if (mergeSegments <= 0)
+			return;
+
+		System.out.printf("Merging the index into %d segments" + System.lineSeparator(), mergeSegments);
+		long mergeStart = System.nanoTime();
+		writer.forceMerge(mergeSegments);
+		System.out.printf("Merged the index in %.1f seconds" + System.lineSeparator(), (System.nanoTime() - mergeStart) / 1e9);
+	}
+
+	/**
+	 * Prints the documents and size of every segment of the last commit and records them in the metrics
+	 */
+	private void reportSegments() throws IOException {
+		SegmentInfos segmentInfos = SegmentInfos.readLatestCommit(dirIndex);
+		long[] segmentBytes = new long[segmentInfos.size()];
+		long totalBytes = 0;
+		int i = 0;
+		for (SegmentCommitInfo segment : segmentInfos) {
+			segmentBytes[i++] = segment.sizeInBytes();
+			totalBytes += segment.sizeInBytes();
+		}
+
+		System.out.printf("Index has %d segments using %.1f MB" + System.lineSeparator(), segmentInfos.size(), totalBytes / 1048576.0);
+		for (SegmentCommitInfo segment : segmentInfos) {
+			System.out.printf("  Segment %s: %d documents, %.1f MB" + System.lineSeparator(),
+					segment.info.name, segment.info.maxDoc() - segment.getDelCount(), segment.sizeInBytes() / 1048576.0);
+		}
+		metrics.setSegmentBytes(segmentBytes);
+	}
+
+	/**
+	 * @return The directory of a partition which is created beside the index directory
+	 */
+	private Path getPartitionPath(int partition) {
+		Path absoluteIndexPath = indexPath.toAbsolutePath().normalize();
+		return absoluteIndexPath.resolveSibling(absoluteIndexPath.getFileName() + "-partition-" + partition);
+	}
+
+	private static void deleteDirectory(Path directory) throws IOException {
+		if (!Files.exists(directory))
+			return;
+
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	/**
+	 * Record the index metadata in the final commit and
+	 * release the index and memory mapped directory
+	 */
+	private void closeWriter(IndexWriter writer) throws IOException {
+		writer.setLiveCommitData(getCommitData().entrySet());
+		metrics.stop();
 		writer.close();
+		reportSegments();
 		dirIndex.close();
+
+		if (metricsPath != null) {
+			metrics.writeJson(metricsPath);
+			System.out.printf("Wrote the index metrics to %s" + System.lineSeparator(), metricsPath);
+		}
+
+		System.out.printf("Title table: %d titles using %.1f MB of heap and %.1f MB memory mapped" + System.lineSeparator(),
+				documentIDs.size(), documentIDs.getHeapBytes() / 1048576.0, documentIDs.getOffHeapBytes() / 1048576.0);
+		documentIDs.clear();
+
+		if (dedupContent) {
+			System.out.printf("Content table: %d distinct contents, %d duplicates indexed as aliases" + System.lineSeparator(),
+					contentIDs.size(), metrics.duplicateDocuments.sum());
+			contentIDs.clear();
+		}
+	}
+
+	/**
+	 * @return The metadata describing how the index was built
+	 */
+	private Map<String, String> getCommitData() {
+		Map<String, String> commitData = new HashMap<>();
+		commitData.put(IndexProfile.COMMIT_KEY, indexProfile.name());
+		commitData.put(LAST_LINE_ID_KEY, Long.toString(lastLineId));
+		commitData.put(DEDUP_CONTENT_KEY, Boolean.toString(dedupContent));
+		return commitData;
 	}
 
 	/**
-	 * Convenience method to add a line and its number to a queue
-	 * @param line The StringBuilder string to be added to the queue
-	 * @param lineNum The number of the line being added 
-	 * @param queue The queue to add the item to
+	 * Prepares appending to an existing index by continuing its line numbering, reusing its index profile,
+	 * and loading the docId of every title it contains and, when deduplicating, the line of every content
+	 * 
+	 * @param reader Reader of the existing index
 	 */
-	private void addItemToQueue(StringBuilder line, long lineNum, BlockingQueue<EnumMap<qKeys, String>> queue) {
-		EnumMap<qKeys,String> queueItem = new EnumMap<>(qKeys.class);
-		queueItem.put(qKeys.LINE, line.toString());
-		queueItem.put(qKeys.LINEID, Long.toString(lineNum++));
+	private void readExistingIndex(DirectoryReader reader) throws IOException {
+		Map<String, String> commitData = reader.getIndexCommit().getUserData();
+
+		String profile = commitData.get(IndexProfile.COMMIT_KEY);
+		if (profile != null && IndexProfile.valueOf(profile) != indexProfile) {
+			System.out.printf("Appending with the index profile of the existing index: %s" + System.lineSeparator(), profile);
+			indexProfile = IndexProfile.valueOf(profile);
+		}
+
+		// Aliases of the existing index must keep being resolved by searches
+		if (Boolean.parseBoolean(commitData.get(DEDUP_CONTENT_KEY)) && !dedupContent) {
+			System.out.println("Appending with the content deduplication of the existing index");
+			dedupContent = true;
+		}
+
+		// New segments must be sorted like the existing ones
+		for (LeafReaderContext leaf : reader.leaves()) {
+			IndexSort existingSort = IndexSort.valueOf(leaf.reader().getMetaData().getSort());
+			if (existingSort != indexSort) {
+				System.out.printf("Appending with the index sort of the existing index: %s" + System.lineSeparator(), existingSort);
+				indexSort = existingSort;
+			}
+			break;
+		}
+
+		double maxDocId = 0;
+		boolean unhashedContents = false;
+		for (LeafReaderContext leaf : reader.leaves()) {
+			LeafReader leafReader = leaf.reader();
+			Bits liveDocs = leafReader.getLiveDocs();
+			NumericDocValues docIds = DocValues.getNumeric(leafReader, "docid");
+			SortedDocValues titles = leafReader.getSortedDocValues("title");
+			// Every document of a title has its docId so each title is only decoded once per segment
+			FixedBitSet seenTitles = titles == null ? null : new FixedBitSet(titles.getValueCount());
+
+			int doc;
+			while ((doc = docIds.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+				if (liveDocs != null && !liveDocs.get(doc))
+					continue;
+				double docId = Double.longBitsToDouble(docIds.longValue());
+				maxDocId = Math.max(maxDocId, docId);
+
+				// Documents indexed before titles had doc values only store them
+				String title;
+				if (titles == null) {
+					title = leafReader.document(doc, TITLE_FIELDS).get("title");
+				} else if (titles.advanceExact(doc) && !seenTitles.getAndSet(titles.ordValue())) {
+					title = titles.binaryValue().utf8ToString();
+				} else {
+					continue;
+				}
+				if (title != null)
+					documentIDs.putMin(title, (long) docId);
+			}
+
+			// Contents of the existing index are not indexed again
+			if (dedupContent && leafReader.getNumericDocValues(CONTENT_ID_FIELD) != null) {
+				NumericDocValues contentIds = leafReader.getNumericDocValues(CONTENT_ID_FIELD);
+				NumericDocValues contentHashes = leafReader.getNumericDocValues(CONTENT_HASH_FIELD);
+				NumericDocValues contentChecks = leafReader.getNumericDocValues(CONTENT_CHECK_FIELD);
+				if (contentHashes == null || contentChecks == null) {
+					unhashedContents = true;
+					continue;
+				}
+				while ((doc = contentHashes.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+					if ((liveDocs == null || liveDocs.get(doc)) && contentChecks.advanceExact(doc) && contentIds.advanceExact(doc))
+						contentIDs.putIfAbsent(contentHashes.longValue(), contentChecks.longValue(), contentIds.longValue());
+				}
+			}
+		}
+		if (unhashedContents) {
+			System.out.println("The contents indexed before their hashes were recorded will not be deduplicated against");
+		}
 
+		// Indexes created before the last line was recorded continue after the largest docId
+		// so that new titles never reuse an existing docId
+		String lastLine = commitData.get(LAST_LINE_ID_KEY);
+		long existingLastLineId = lastLine == null ? (long) maxDocId : Long.parseLong(lastLine);
+		firstLineId = existingLastLineId + 1;
+		lastLineId = existingLastLineId;
+
+		// Checkpoints continue reading the corpus where they were committed
+		String checkpointOffset = commitData.get(CORPUS_OFFSET_KEY);
+		if (resume && checkpointOffset != null) {
+			corpusOffset = Long.parseLong(checkpointOffset);
+			for (String range : commitData.get(INDEXED_LINES_KEY).split(",")) {
+				if (range.isEmpty())
+					continue;
+				String[] rangeLines = range.split("-");
+				indexedLines.add(new long[] { Long.parseLong(rangeLines[0]), Long.parseLong(rangeLines[1]) });
+			}
+
+			System.out.printf("Resuming the index with %d documents and %d titles from line %d" + System.lineSeparator(),
+					reader.numDocs(), documentIDs.size(), firstLineId);
+			return;
+		}
+
+		System.out.printf("Appending to an existing index with %d documents and %d titles after line %d" + System.lineSeparator(),
+				reader.numDocs(), documentIDs.size(), existingLastLineId);
+	}
+
+	/**
+	 * Index the corpus by having every thread parse its own newline aligned chunks
+	 * of the memory mapped corpus.  There is no reader thread or queue in this mode.
+	 * 
+	 * The chunks are first scanned to count their lines, then read twice.  The first read
+	 * records the first line of every title in the title table so that docIds are assigned
+	 * in corpus order exactly as they are when the corpus is read sequentially.  When the
+	 * delimiter can be found in the bytes of the lines, only the titles are decoded by the
+	 * first read.
+	 */
+	private void readMappedCorpus(MappedCorpusReader mappedCorpusReader, IndexWriter[] writers, IndexSchema schema)
+			throws IOException {
+		ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
 		try {
-			queue.put(queueItem);
+			// Use several chunks per thread so that threads finishing early pick up remaining work
+			List<MappedCorpusReader.Chunk> chunks = mappedCorpusReader.split(numThreads * 4);
+
+			// Count the lines of every chunk to number them before any title is read
+			List<Future<Long>> chunkLineCounts = new ArrayList<>(chunks.size());
+			for (MappedCorpusReader.Chunk chunk : chunks) {
+				chunkLineCounts.add(threadPool.submit(() -> mappedCorpusReader.countLines(chunk)));
+			}
+
+			long[] chunkFirstLineIds = new long[chunks.size()];
+			long lineId = firstLineId;
+			for (int i = 0; i < chunks.size(); i++) {
+				chunkFirstLineIds[i] = lineId;
+				lineId += chunkLineCounts.get(i).get();
+			}
+			lastLineId = lineId - 1;
+
+			// Every title keeps its first line whatever order the chunks are read in
+			DelimiterMatcher delimiterMatcher = DelimiterMatcher.compile(delimeter, mappedCorpusReader.getCharset());
+			MappedCorpusReader.LineHandler splitTitle = (line, titleLineId) -> {
+				String splitLine[] = delimeterPattern.split(line, 2);
+				if (splitLine.length == 2)
+					documentIDs.putMin(splitLine[0], titleLineId);
+			};
+			List<Future<?>> titles = new ArrayList<>(chunks.size());
+			for (int i = 0; i < chunks.size(); i++) {
+				final int chunkIndex = i;
+				titles.add(threadPool.submit(() -> {
+					if (delimiterMatcher == null) {
+						mappedCorpusReader.read(chunks.get(chunkIndex), chunkFirstLineIds[chunkIndex], splitTitle);
+					} else {
+						mappedCorpusReader.readTitles(chunks.get(chunkIndex), chunkFirstLineIds[chunkIndex], delimiterMatcher,
+								documentIDs::putMin, splitTitle);
+					}
+					return null;
+				}));
+			}
+
+			for (Future<?> result : titles) {
+				result.get();
+			}
+
+			List<Future<?>> results = new ArrayList<>(chunks.size());
+			for (int i = 0; i < chunks.size(); i++) {
+				final int chunkIndex = i;
+				results.add(threadPool.submit(() -> {
+					// Chunks are spread across the partitions when building partitioned
+					DocumentBatch documents = new DocumentBatch(writers[chunkIndex % writers.length], schema);
+					metrics.bytes.add(chunks.get(chunkIndex).getEnd() - chunks.get(chunkIndex).getStart());
+					mappedCorpusReader.read(chunks.get(chunkIndex), chunkFirstLineIds[chunkIndex],
+							(line, chunkLineId) -> indexLine(documents, line, chunkLineId));
+					documents.flush();
+					return null;
+				}));
+			}
+
+			for (Future<?> result : results) {
+				result.get();
+			}
 		} catch (InterruptedException e) {
-			System.out.println("Failed to add an item to the queue");
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while indexing the corpus", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to index the corpus", e.getCause());
+		} finally {
+			threadPool.shutdown();
+		}
+	}
+
+	/**
+	 * Parse a corpus line into a document and add it to the batch of documents to index
+	 * 
+	 * @param documents The batch of documents of the current thread
+	 * @param line The corpus line containing the title and content
+	 * @param lineId The line number of the line in the corpus
+	 */
+	private void indexLine(DocumentBatch documents, String line, long lineId) {
+		metrics.lines.increment();
+
+		String splitLine[] = delimeterPattern.split(line, 2);
+		if (splitLine.length < 2) {
+			metrics.malformedLines.increment();
+			System.out.printf("Line %d of corpus is not properly formatted: " + System.lineSeparator()
+					+ "\t%s" + System.lineSeparator(), lineId, line.substring(0,Math.min(line.length(), 100)));
+			return;
+		}
+
+		String docTitle = splitLine[0];
+		String docContent = splitLine[1];
+		
+		// Get the document score from the document title
+		double docScore;
+		try {
+			docScore = parseDocumentScore(docTitle);
+		} catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+			metrics.malformedLines.increment();
+			System.out.printf("Unable to parse score from line %d of corpus: " + System.lineSeparator()
+					+ "\t%s" + System.lineSeparator(), lineId, line.substring(0,Math.min(line.length(), 100)));
+			return;
+		}
+		
+		// Skip documents that match a rule with a score adjustment of 0
+		docScore = scoreOffsetRuleSet.apply(docTitle, docScore);
+		if (Double.isNaN(docScore)) {
+			metrics.droppedLines.increment();
+			return;
+		}
+
+		// Add the document to the batch
+		double docId = documentIDs.putIfAbsent(docTitle, lineId);
+		if (!dedupContent) {
+			documents.add(docTitle, docContent, docScore, docId, lineId, 0, 0);
+			return;
+		}
+
+		// Only the first line with a content indexes it and the others become its aliases
+		long contentHash = TitleIdMap.hash(docContent);
+		long contentCheck = TitleIdMap.checkHash(docContent);
+		long contentId = contentIDs.putIfAbsent(contentHash, contentCheck, lineId);
+		if (contentId == lineId) {
+			documents.add(docTitle, docContent, docScore, docId, contentId, contentHash, contentCheck);
+		} else {
+			metrics.duplicateDocuments.increment();
+			documents.add(docTitle, "", docScore, docId, contentId, contentHash, contentCheck);
+		}
+	}
+
+	/**
+	 * Convenience method to add a batch of lines to a queue
+	 * @param lineBatch The batch of lines to be added to the queue
+	 * @param queue The queue to add the batch to
+	 */
+	private void addBatchToQueue(LineBatch lineBatch, BlockingQueue<LineBatch> queue) {
+		long waitStart = System.nanoTime();
+		try {
+			queue.put(lineBatch);
+			metrics.producerStallNanos.add(System.nanoTime() - waitStart);
+			metrics.recordQueueDepth(queue.size());
+		} catch (InterruptedException e) {
+			System.out.println("Failed to add a batch to the queue");
 		}
 	}
 
@@ -334,31 +1385,164 @@ public class IndexCreator {
 			titleField.setTokenized( false );
 			titleField.freeze();
 
-			contentField = new FieldType();
-			contentField.setIndexOptions( IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS );
-			contentField.setStoreTermVectors( true );
-			contentField.setStoreTermVectorPositions( true );
-			contentField.setTokenized( true );
-			contentField.setStored( true );
-			contentField.freeze();
+			contentField = indexProfile.createContentFieldType();
 		}
-		
+	}
+
+	/**
+	 * Accumulates the documents parsed by a single indexing thread and adds them to the index in bulk.
+	 * A single document and its fields are reused for every document added to the index.
+	 */
+	private class DocumentBatch implements Iterable<Document> {
+		private final IndexWriter writer;
+		private final String[] titles = new String[BATCH_SIZE];
+		private final String[] contents = new String[BATCH_SIZE];
+		private final double[] scores = new double[BATCH_SIZE];
+		private final double[] docIds = new double[BATCH_SIZE];
+		private final long[] contentIds = new long[BATCH_SIZE];
+		private final long[] contentHashes = new long[BATCH_SIZE];
+		private final long[] contentChecks = new long[BATCH_SIZE];
+		private int size;
+
+		private final Document doc;
+		private final Field title;
+		private final Field content;
+		private final DoubleDocValuesField score;
+		private final DoubleDocValuesField docId;
+		private final StoredField storedDocId;
+		// Titles and content IDs are read from doc values when the results are written
+		private final SortedDocValuesField titleValue;
+		private final LongPoint contentId;
+		private final NumericDocValuesField contentIdValue;
+		private final StoredField storedContentId;
+		private final NumericDocValuesField contentHash;
+		private final NumericDocValuesField contentCheck;
+
+		DocumentBatch(IndexWriter writer, IndexSchema schema) {
+			this.writer = writer;
+
+			title = new Field("title", "", schema.titleField);
+			titleValue = new SortedDocValuesField("title", new BytesRef());
+			content = new Field("content", "", schema.contentField);
+			score = new DoubleDocValuesField("score", 0);
+			docId = new DoubleDocValuesField("docid", 0);
+			storedDocId = new StoredField("docId", 0d);
+			contentId = new LongPoint(CONTENT_ID_FIELD, 0);
+			contentIdValue = new NumericDocValuesField(CONTENT_ID_FIELD, 0L);
+			storedContentId = new StoredField(CONTENT_ID_FIELD, 0L);
+			contentHash = new NumericDocValuesField(CONTENT_HASH_FIELD, 0L);
+			contentCheck = new NumericDocValuesField(CONTENT_CHECK_FIELD, 0L);
+
+			doc = new Document();
+			doc.add(title);
+			doc.add(titleValue);
+			doc.add(content);
+			doc.add(score);
+			doc.add(docId);
+			doc.add(storedDocId);
+			// Aliases are found through the content ID of the document that holds their content
+			if (dedupContent) {
+				doc.add(contentId);
+				doc.add(contentIdValue);
+				doc.add(storedContentId);
+				doc.add(contentHash);
+				doc.add(contentCheck);
+			}
+		}
+
 		/*
-		 * Returns a document based on the defined schema to insert into the index
+		 * Adds a document to the batch and flushes the batch to the index once it is full
 		 * @param title The title of the document
 		 * @param content The content of the document
-		 * @param id The numeric ID to assign the document for later retrieval
+		 * @param score The parsed document score
+		 * @param docId The numeric ID to assign the document for later retrieval
+		 * @param contentId The line number of the document holding the content when deduplicating
+		 * @param contentHash The hash of the content when deduplicating
+		 * @param contentCheck The check hash of the content when deduplicating
 		 */
-		public Document createDocument(String title, String content, double score, double docId) {
-			Document doc = new Document();
+		public void add(String title, String content, double score, double docId, long contentId, long contentHash,
+				long contentCheck) {
+			titles[size] = title;
+			contents[size] = content;
+			scores[size] = score;
+			docIds[size] = docId;
+			contentIds[size] = contentId;
+			contentHashes[size] = contentHash;
+			contentChecks[size] = contentCheck;
+			if (++size == BATCH_SIZE)
+				flush();
+		}
+
+		/*
+		 * Adds the batched documents to the index
+		 */
+		public void flush() {
+			if (size == 0)
+				return;
+
+			try {
+				try {
+					writer.addDocuments(this);
+					metrics.addDocuments(size);
+				} catch (IllegalArgumentException e) {
+					// A single invalid document rejects the whole batch so add the documents individually
+					for (int i = 0; i < size; i++) {
+						try {
+							writer.addDocument(getDocument(i));
+							metrics.addDocuments(1);
+						} catch (IllegalArgumentException e1) {
+							metrics.rejectedDocuments.increment();
+							System.out.printf("Unable to index document %s: %s" + System.lineSeparator(), titles[i], e1.getMessage());
+						}
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			metrics.sampleWriterRamBytes();
 
-			doc.add(new Field("title", title, titleField));
-			doc.add(new Field("content", content, contentField));
-			doc.add(new DoubleDocValuesField("score", score));
-			doc.add(new DoubleDocValuesField("docid", docId));
-			doc.add(new StoredField("docId", docId));
+			Arrays.fill(titles, 0, size, null);
+			Arrays.fill(contents, 0, size, null);
+			size = 0;
+		}
 
+		/*
+		 * Returns the reused document populated with the values of a batched document
+		 */
+		private Document getDocument(int i) {
+			title.setStringValue(titles[i]);
+			titleValue.setBytesValue(new BytesRef(titles[i]));
+			content.setStringValue(contents[i]);
+			score.setDoubleValue(scores[i]);
+			docId.setDoubleValue(docIds[i]);
+			storedDocId.setDoubleValue(docIds[i]);
+			contentId.setLongValue(contentIds[i]);
+			contentIdValue.setLongValue(contentIds[i]);
+			storedContentId.setLongValue(contentIds[i]);
+			contentHash.setLongValue(contentHashes[i]);
+			contentCheck.setLongValue(contentChecks[i]);
 			return doc;
 		}
+
+		/*
+		 * The index writer fully consumes each document before requesting the next one
+		 * which permits reusing the same document instance
+		 */
+		@Override
+		public Iterator<Document> iterator() {
+			return new Iterator<Document>() {
+				private int i = 0;
+
+				@Override
+				public boolean hasNext() {
+					return i < size;
+				}
+
+				@Override
+				public Document next() {
+					return getDocument(i++);
+				}
+			};
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,344 @@
+package com.iyadk.termsearch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+
+/**
+ * Counters of the indexing pipeline that are reported periodically while the index is built
+ * and written as a JSON summary once it is complete.
+ *
+ * The counters are updated by the reader and indexing threads so they only use adders.
+ * Flushes are measured through the files the index writer creates in its directory and merges through
+ * its merge scheduler.
+ *
+ * @author Iyad Kandalaft
+ */
+public class IndexMetrics {
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final double BYTES_PER_MB = 1048576.0;
+
+	final LongAdder lines = new LongAdder();
+	final LongAdder bytes = new LongAdder();
+	final LongAdder documents = new LongAdder();
+	final LongAdder malformedLines = new LongAdder();
+	final LongAdder droppedLines = new LongAdder();
+	final LongAdder rejectedDocuments = new LongAdder();
+	// Documents indexed as aliases of a document with the same content
+	final LongAdder duplicateDocuments = new LongAdder();
+	// Time the reader waits for room in the queue and the indexing threads wait for lines
+	final LongAdder producerStallNanos = new LongAdder();
+	final LongAdder consumerStallNanos = new LongAdder();
+	// Time the reader spends reading the corpus, of which waiting on reads of the corpus
+	final LongAdder readerNanos = new LongAdder();
+	final LongAdder ioWaitNanos = new LongAdder();
+
+	private final LongAdder flushes = new LongAdder();
+	private final LongAdder flushNanos = new LongAdder();
+	private final LongAdder merges = new LongAdder();
+	private final LongAdder mergeNanos = new LongAdder();
+	private final LongAdder mergedDocuments = new LongAdder();
+	private final ConcurrentHashMap<String, LongAdder> threadDocuments = new ConcurrentHashMap<>();
+	// Time the first file of every segment being flushed was created
+	private final ConcurrentHashMap<String, Long> flushStarts = new ConcurrentHashMap<>();
+
+	private final LongAccumulator peakQueueDepth = new LongAccumulator(Math::max, 0);
+	private final LongAccumulator peakWriterRamBytes = new LongAccumulator(Math::max, 0);
+	private volatile LongSupplier queueDepth = () -> 0;
+	private volatile LongSupplier writerRamBytes = () -> 0;
+	private long[] segmentBytes = new long[0];
+
+	private final long startTime = System.nanoTime();
+	private ScheduledExecutorService reporter;
+	private long lastReportTime = startTime;
+	private long lastReportLines;
+	private long lastReportBytes;
+	private long lastReportIoWaitNanos;
+
+	/**
+	 * @param queueDepth Supplies the number of line batches waiting for the indexing threads
+	 */
+	public void setQueueDepth(LongSupplier queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+
+	/**
+	 * @param writerRamBytes Supplies the bytes buffered by the index writers
+	 */
+	public void setWriterRamBytes(LongSupplier writerRamBytes) {
+		this.writerRamBytes = writerRamBytes;
+	}
+
+	/**
+	 * @param segmentBytes The size of every segment of the completed index
+	 */
+	public void setSegmentBytes(long[] segmentBytes) {
+		this.segmentBytes = segmentBytes;
+	}
+
+	/**
+	 * Records the number of line batches in the queue right after one was added to it
+	 */
+	void recordQueueDepth(long depth) {
+		peakQueueDepth.accumulate(depth);
+	}
+
+	/**
+	 * Records the bytes buffered by the index writers right after documents were added to them.
+	 * The writers free their buffers once they flush so the peak is only seen between flushes.
+	 */
+	void sampleWriterRamBytes() {
+		peakWriterRamBytes.accumulate(writerRamBytes.getAsLong());
+	}
+
+	/**
+	 * Counts the documents indexed by the current thread
+	 */
+	void addDocuments(int count) {
+		documents.add(count);
+		threadDocuments.computeIfAbsent(Thread.currentThread().getName(), name -> new LongAdder()).add(count);
+	}
+
+	/**
+	 * Wraps the directory of an index writer to measure its flushes.  A flush writes the files of a new
+	 * segment in the flush context and ends with its segment info, so a flush is timed from the creation
+	 * of its first file to the close of its segment info.  This is a best-effort measure: the time the
+	 * writer spends before creating the first file, such as sorting the segment, is not counted.  Flushes
+	 * of concurrent threads overlap so their time can exceed the elapsed time.
+	 *
+	 * @param directory Directory of an index writer
+	 * @return The directory that measures the flushes of the index writer
+	 */
+	public Directory wrapDirectory(Directory directory) {
+		return new FilterDirectory(directory) {
+			@Override
+			public IndexOutput createOutput(String name, IOContext context) throws IOException {
+				IndexOutput output = super.createOutput(name, context);
+				if (context.context != IOContext.Context.FLUSH)
+					return output;
+
+				// Term vectors are written in the flush context from the first document of the segment
+				String extension = IndexFileNames.getExtension(name);
+				if (extension == null || extension.startsWith("tv"))
+					return output;
+
+				String segment = IndexFileNames.parseSegmentName(name);
+				flushStarts.putIfAbsent(segment, System.nanoTime());
+				if (!"si".equals(extension))
+					return output;
+				return new SegmentInfoOutput(output, segment);
+			}
+		};
+	}
+
+	/**
+	 * @return Merge scheduler that measures the merges of an index writer
+	 */
+	public ConcurrentMergeScheduler createMergeScheduler() {
+		return new ConcurrentMergeScheduler() {
+			@Override
+			protected void doMerge(IndexWriter writer, MergePolicy.OneMerge merge) throws IOException {
+				long mergeStart = System.nanoTime();
+				try {
+					super.doMerge(writer, merge);
+				} finally {
+					merges.increment();
+					mergeNanos.add(System.nanoTime() - mergeStart);
+					mergedDocuments.add(merge.totalMaxDoc);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Prints the throughput of the pipeline periodically
+	 * @param intervalSeconds Seconds between reports (0 to disable)
+	 */
+	public void start(int intervalSeconds) {
+		if (intervalSeconds <= 0)
+			return;
+
+		reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "index-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reporter.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the periodic reports
+	 */
+	public void stop() {
+		if (reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+		sample();
+	}
+
+	/*
+	 * Records the peak of the gauges
+	 */
+	private void sample() {
+		peakQueueDepth.accumulate(queueDepth.getAsLong());
+		peakWriterRamBytes.accumulate(writerRamBytes.getAsLong());
+	}
+
+	/*
+	 * Prints the throughput since the last report along with the current state of the pipeline
+	 */
+	private synchronized void report() {
+		sample();
+
+		long now = System.nanoTime();
+		long currentLines = lines.sum();
+		long currentBytes = bytes.sum();
+		long currentIoWaitNanos = ioWaitNanos.sum();
+		double seconds = Math.max(1, now - lastReportTime) / NANOS_PER_SECOND;
+
+		System.out.printf("Indexed %d lines (%.0f lines/s, %.1f MB/s), %d documents, queue depth %d, writer RAM %.1f MB, "
+				+ "%d flushes, %d merges, %d malformed lines, reader waiting on I/O %.0f%%" + System.lineSeparator(),
+				currentLines, (currentLines - lastReportLines) / seconds, (currentBytes - lastReportBytes) / BYTES_PER_MB / seconds,
+				documents.sum(), queueDepth.getAsLong(), writerRamBytes.getAsLong() / BYTES_PER_MB,
+				flushes.sum(), merges.sum(), malformedLines.sum(),
+				100 * (currentIoWaitNanos - lastReportIoWaitNanos) / NANOS_PER_SECOND / seconds);
+
+		lastReportTime = now;
+		lastReportLines = currentLines;
+		lastReportBytes = currentBytes;
+		lastReportIoWaitNanos = currentIoWaitNanos;
+	}
+
+	/**
+	 * @return The summary of the build as a JSON object
+	 */
+	public String toJson() {
+		double elapsedSeconds = (System.nanoTime() - startTime) / NANOS_PER_SECOND;
+
+		StringBuilder json = new StringBuilder();
+		json.append("{").append(System.lineSeparator());
+		appendField(json, "elapsedSeconds", elapsedSeconds);
+		appendField(json, "lines", lines.sum());
+		appendField(json, "bytes", bytes.sum());
+		appendField(json, "linesPerSecond", lines.sum() / elapsedSeconds);
+		appendField(json, "bytesPerSecond", bytes.sum() / elapsedSeconds);
+		appendField(json, "documents", documents.sum());
+		appendField(json, "malformedLines", malformedLines.sum());
+		appendField(json, "droppedLines", droppedLines.sum());
+		appendField(json, "rejectedDocuments", rejectedDocuments.sum());
+		appendField(json, "duplicateDocuments", duplicateDocuments.sum());
+		appendField(json, "producerStallSeconds", producerStallNanos.sum() / NANOS_PER_SECOND);
+		appendField(json, "consumerStallSeconds", consumerStallNanos.sum() / NANOS_PER_SECOND);
+		appendField(json, "ioWaitSeconds", ioWaitNanos.sum() / NANOS_PER_SECOND);
+		// The rest of the reader's time is spent parsing the lines
+		appendField(json, "parseSeconds",
+				Math.max(0, readerNanos.sum() - ioWaitNanos.sum() - producerStallNanos.sum()) / NANOS_PER_SECOND);
+		appendField(json, "peakQueueDepth", peakQueueDepth.get());
+		appendField(json, "peakWriterRamBytes", peakWriterRamBytes.get());
+		appendField(json, "flushes", flushes.sum());
+		appendField(json, "flushSeconds", flushNanos.sum() / NANOS_PER_SECOND);
+		appendField(json, "merges", merges.sum());
+		appendField(json, "mergeSeconds", mergeNanos.sum() / NANOS_PER_SECOND);
+		appendField(json, "mergedDocuments", mergedDocuments.sum());
+		appendField(json, "segments", segmentBytes.length);
+
+		json.append("  \"segmentBytes\": [");
+		for (int i = 0; i < segmentBytes.length; i++)
+			json.append(i == 0 ? "" : ", ").append(segmentBytes[i]);
+		json.append("],").append(System.lineSeparator());
+
+		json.append("  \"threadDocuments\": {");
+		String separator = System.lineSeparator();
+		for (Map.Entry<String, LongAdder> thread : new TreeMap<>(threadDocuments).entrySet()) {
+			json.append(separator).append("    \"").append(escape(thread.getKey())).append("\": ").append(thread.getValue().sum());
+			separator = "," + System.lineSeparator();
+		}
+		json.append(System.lineSeparator()).append("  }").append(System.lineSeparator());
+		json.append("}").append(System.lineSeparator());
+		return json.toString();
+	}
+
+	/**
+	 * Writes the JSON summary of the build to a file
+	 */
+	public void writeJson(Path path) throws IOException {
+		Files.write(path, toJson().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/*
+	 * Counts the flush of a segment once its segment info is written
+	 */
+	private class SegmentInfoOutput extends IndexOutput {
+		private final IndexOutput output;
+		private final String segment;
+
+		SegmentInfoOutput(IndexOutput output, String segment) {
+			super(output.toString(), output.getName());
+			this.output = output;
+			this.segment = segment;
+		}
+
+		@Override
+		public void close() throws IOException {
+			output.close();
+			Long flushStart = flushStarts.remove(segment);
+			if (flushStart != null) {
+				flushes.increment();
+				flushNanos.add(System.nanoTime() - flushStart);
+			}
+		}
+
+		@Override
+		public long getFilePointer() {
+			return output.getFilePointer();
+		}
+
+		@Override
+		public long getChecksum() throws IOException {
+			return output.getChecksum();
+		}
+
+		@Override
+		public void writeByte(byte b) throws IOException {
+			output.writeByte(b);
+		}
+
+		@Override
+		public void writeBytes(byte[] b, int offset, int length) throws IOException {
+			output.writeBytes(b, offset, length);
+		}
+	}
+
+	private static void appendField(StringBuilder json, String name, long value) {
+		json.append("  \"").append(name).append("\": ").append(value).append(",").append(System.lineSeparator());
+	}
+
+	private static void appendField(StringBuilder json, String name, double value) {
+		json.append("  \"").append(name).append("\": ").append(String.format(Locale.ROOT, "%.3f", value)).append(",").append(System.lineSeparator());
+	}
+
+	private static String escape(String text) {
+		return text.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
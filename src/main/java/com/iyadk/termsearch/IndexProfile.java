@@ -0,0 +1,73 @@
+package com.iyadk.termsearch;
+
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter.OffsetSource;
+
+/**
+ * Layouts of the content field that determine where the highlighter obtains term offsets from.
+ *
+ * FULL stores offsets in the postings and also stores term vectors (largest index)
+ * POSTINGS_OFFSETS stores offsets in the postings only
+ * TERM_VECTORS stores positions in the postings and offsets in the term vectors
+ * REANALYSIS stores positions only and re-analyzes the stored content when highlighting (smallest index)
+ *
+ * The profile is recorded in the index commit metadata so that searches highlight using the matching offset source.
+ *
+ * @author Iyad Kandalaft
+ */
+public enum IndexProfile {
+	FULL(OffsetSource.POSTINGS_WITH_TERM_VECTORS),
+	POSTINGS_OFFSETS(OffsetSource.POSTINGS),
+	TERM_VECTORS(OffsetSource.TERM_VECTORS),
+	REANALYSIS(OffsetSource.ANALYSIS);
+
+	// Key of the index commit metadata holding the profile
+	public static final String COMMIT_KEY = "indexProfile";
+
+	private final OffsetSource offsetSource;
+
+	private IndexProfile(OffsetSource offsetSource) {
+		this.offsetSource = offsetSource;
+	}
+
+	/**
+	 * @return The source of offsets the highlighter must use for the content field
+	 */
+	public OffsetSource getOffsetSource() {
+		return offsetSource;
+	}
+
+	/**
+	 * Creates the field type of the content field for this profile
+	 * Content is always tokenized with positions for phrase queries and stored for highlighting
+	 */
+	public FieldType createContentFieldType() {
+		FieldType contentField = new FieldType();
+		contentField.setTokenized( true );
+		contentField.setStored( true );
+
+		switch (this) {
+		case FULL:
+			contentField.setIndexOptions( IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS );
+			contentField.setStoreTermVectors( true );
+			contentField.setStoreTermVectorPositions( true );
+			break;
+		case POSTINGS_OFFSETS:
+			contentField.setIndexOptions( IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS );
+			break;
+		case TERM_VECTORS:
+			contentField.setIndexOptions( IndexOptions.DOCS_AND_FREQS_AND_POSITIONS );
+			contentField.setStoreTermVectors( true );
+			contentField.setStoreTermVectorPositions( true );
+			contentField.setStoreTermVectorOffsets( true );
+			break;
+		case REANALYSIS:
+			contentField.setIndexOptions( IndexOptions.DOCS_AND_FREQS_AND_POSITIONS );
+			break;
+		}
+
+		contentField.freeze();
+		return contentField;
+	}
+}
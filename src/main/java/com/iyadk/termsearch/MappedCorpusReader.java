@@ -0,0 +1,277 @@
+package com.iyadk.termsearch;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a corpus through memory mapped, newline aligned chunks so that several
+ * threads can parse lines directly from the mapped bytes.
+ *
+ * Line numbers are identical to reading the corpus sequentially: the first line
+ * is 1 and every \n starts a new line. \r characters are kept as part of the line.
+ * A corpus made of several files is numbered as if the files were read one after
+ * another and the last line of every file ends with the file unless it is empty.
+ * Chunks of different files are read concurrently like the chunks of a single file.
+ *
+ * @author Iyad Kandalaft
+ */
+public class MappedCorpusReader implements AutoCloseable {
+	// A single mapping cannot exceed Integer.MAX_VALUE bytes
+	private static final long MAX_CHUNK_SIZE = 1L << 30;
+	private static final int SCAN_BUFFER_SIZE = 65536;
+
+	private final List<Path> corpusPaths;
+	private final Charset charset;
+
+	/**
+	 * Handles every line parsed from a chunk
+	 */
+	public interface LineHandler {
+		public void handleLine(String line, long lineId) throws IOException;
+	}
+
+	/**
+	 * A newline aligned region of the corpus
+	 */
+	public static class Chunk {
+		private final Path path;
+		private final long start;
+		private final long end;
+		private final boolean last;
+
+		Chunk(Path path, long start, long end, boolean last) {
+			this.path = path;
+			this.start = start;
+			this.end = end;
+			this.last = last;
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+	}
+
+	/**
+	 * @param corpusPath Path to the corpus text
+	 */
+	public MappedCorpusReader(Path corpusPath) throws FileNotFoundException, IOException {
+		this(Collections.singletonList(corpusPath));
+	}
+
+	/**
+	 * @param corpusPaths Paths to the files of the corpus in the order they are numbered
+	 */
+	public MappedCorpusReader(List<Path> corpusPaths) throws FileNotFoundException, IOException {
+		for (Path corpusPath : corpusPaths) {
+			if (!Files.isRegularFile(corpusPath))
+				throw new FileNotFoundException(corpusPath.toString());
+		}
+		this.corpusPaths = corpusPaths;
+		// Match the charset used by the InputStreamReader of the streamed corpus
+		this.charset = Charset.defaultCharset();
+	}
+
+	public List<Path> getCorpusPaths() {
+		return corpusPaths;
+	}
+
+	/**
+	 * Split the corpus into newline aligned chunks.  Every file has at least one chunk
+	 * unless it is empty.
+	 *
+	 * @param minChunks Minimum number of chunks to create (e.g. a few per thread)
+	 * @return The chunks in corpus order
+	 */
+	public List<Chunk> split(int minChunks) throws IOException {
+		long totalSize = 0;
+		for (Path corpusPath : corpusPaths)
+			totalSize += Files.size(corpusPath);
+		long chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, totalSize / Math.max(1, minChunks)));
+
+		List<Chunk> chunks = new ArrayList<>();
+		for (Path corpusPath : corpusPaths) {
+			try (FileChannel channel = FileChannel.open(corpusPath, StandardOpenOption.READ)) {
+				long size = channel.size();
+				long start = 0;
+				while (start < size) {
+					long end = start + chunkSize >= size ? size : nextLineStart(channel, start + chunkSize);
+					chunks.add(new Chunk(corpusPath, start, end, end >= size));
+					start = end;
+				}
+			}
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Parse every line in the chunk and pass it to the handler
+	 *
+	 * @param chunk Chunk to read
+	 * @param firstLineId Line number assigned to the first line of the chunk
+	 * @param handler Receives each line and its line number
+	 * @return The number of lines read from the chunk
+	 */
+	public long read(Chunk chunk, long firstLineId, LineHandler handler) throws IOException {
+		MappedByteBuffer buffer = map(chunk);
+		byte[] line = new byte[4096];
+		int lineLength = 0;
+		long lineId = firstLineId;
+
+		int limit = buffer.limit();
+		for (int i = 0; i < limit; i++) {
+			byte currentByte = buffer.get(i);
+			if (currentByte == '\n') {
+				handler.handleLine(new String(line, 0, lineLength, charset), lineId++);
+				lineLength = 0;
+				continue;
+			}
+
+			if (lineLength == line.length) {
+				byte[] grown = new byte[line.length * 2];
+				System.arraycopy(line, 0, grown, 0, lineLength);
+				line = grown;
+			}
+			line[lineLength++] = currentByte;
+		}
+
+		// The last line of a file might not be terminated by \n
+		if (chunk.last && lineLength > 0) {
+			handler.handleLine(new String(line, 0, lineLength, charset), lineId++);
+		}
+
+		return lineId - firstLineId;
+	}
+
+	/**
+	 * Count the lines of the chunk without decoding them.  Lines are counted exactly as they are by read.
+	 *
+	 * @param chunk Chunk to read
+	 * @return The number of lines in the chunk
+	 */
+	public long countLines(Chunk chunk) throws IOException {
+		MappedByteBuffer buffer = map(chunk);
+		long lines = 0;
+
+		int limit = buffer.limit();
+		int lineStart = 0;
+		for (int i = 0; i < limit; i++) {
+			if (buffer.get(i) == '\n') {
+				lines++;
+				lineStart = i + 1;
+			}
+		}
+
+		// The last line of a file might not be terminated by \n
+		if (chunk.last && lineStart < limit)
+			lines++;
+
+		return lines;
+	}
+
+	/**
+	 * Pass the title of every line in the chunk to the handler without decoding the rest of the line.
+	 * Lines are numbered exactly as they are by read.
+	 *
+	 * @param chunk Chunk to read
+	 * @param firstLineId Line number assigned to the first line of the chunk
+	 * @param delimiter Finds the delimiter that ends the title of a line
+	 * @param titleHandler Receives the title of every line that has a delimiter and its line number
+	 * @param lineHandler Receives the lines with malformed bytes before their delimiter, which must be split
+	 *        as decoded text
+	 * @return The number of lines read from the chunk
+	 */
+	public long readTitles(Chunk chunk, long firstLineId, DelimiterMatcher delimiter, LineHandler titleHandler,
+			LineHandler lineHandler) throws IOException {
+		MappedByteBuffer buffer = map(chunk);
+		byte[] bytes = new byte[4096];
+		long lineId = firstLineId;
+
+		int limit = buffer.limit();
+		int lineStart = 0;
+		for (int i = 0; i <= limit; i++) {
+			if (i < limit && buffer.get(i) != '\n')
+				continue;
+			// The last line of a file might not be terminated by \n
+			if (i == limit && (!chunk.last || lineStart == limit))
+				break;
+
+			int match = delimiter.find(buffer, lineStart, i);
+			int end = match == DelimiterMatcher.MALFORMED ? i : match;
+			if (end - lineStart > bytes.length)
+				bytes = new byte[Math.max(end - lineStart, bytes.length * 2)];
+			for (int j = lineStart; j < end; j++)
+				bytes[j - lineStart] = buffer.get(j);
+			if (match == DelimiterMatcher.MALFORMED)
+				lineHandler.handleLine(new String(bytes, 0, end - lineStart, charset), lineId);
+			else if (match >= 0)
+				titleHandler.handleLine(new String(bytes, 0, end - lineStart, charset), lineId);
+			lineId++;
+			lineStart = i + 1;
+		}
+
+		return lineId - firstLineId;
+	}
+
+	/**
+	 * @return The charset the lines are decoded with
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Files are only open while they are mapped so there is nothing to release
+	 */
+	@Override
+	public void close() throws IOException {
+	}
+
+	/*
+	 * The mapping remains valid once the channel is closed which keeps a corpus of
+	 * thousands of files from holding as many open files
+	 */
+	private MappedByteBuffer map(Chunk chunk) throws IOException {
+		try (FileChannel channel = FileChannel.open(chunk.path, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start);
+		}
+	}
+
+	/**
+	 * @return The offset following the first \n found at or after the position
+	 */
+	private static long nextLineStart(FileChannel channel, long position) throws IOException {
+		ByteBuffer scanBuffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		long size = channel.size();
+		while (position < size) {
+			scanBuffer.clear();
+			int read = channel.read(scanBuffer, position);
+			if (read <= 0)
+				break;
+			for (int i = 0; i < read; i++) {
+				if (scanBuffer.get(i) == '\n')
+					return position + i + 1;
+			}
+			position += read;
+		}
+		return size;
+	}
+}
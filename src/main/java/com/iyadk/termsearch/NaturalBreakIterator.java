@@ -13,7 +13,7 @@ public class NaturalBreakIterator extends BreakIterator {
 	private final BreakIterator baseIterator;
 	private final int minLength;
 	private final int maxLength;
-	private final int queryOffset;
+	private int queryOffset;
 	private int current;
 	private CharacterIterator text;
 
@@ -30,10 +30,19 @@ public class NaturalBreakIterator extends BreakIterator {
 	public NaturalBreakIterator(int minLength, int maxLength) {
 		this(minLength, maxLength, 0);
 	}
+
+	/**
+	 * Sets the length of the query so the iterator can be reused for another query
+	 * 
+	 * @param offset Length of the query
+	 */
+	public void setQueryOffset(int offset) {
+		this.queryOffset = offset;
+	}
 	
 	@Override
 	public Object clone() {
-		final NaturalBreakIterator clone = new NaturalBreakIterator(minLength, maxLength);
+		final NaturalBreakIterator clone = new NaturalBreakIterator(minLength, maxLength, queryOffset);
 		clone.setText(text);
 		return clone;
 	}
@@ -0,0 +1,137 @@
+package com.iyadk.termsearch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a source stream on its own thread so that producing the bytes (e.g. decompressing them)
+ * overlaps with parsing them.  The bytes are handed over in blocks through a bounded queue which
+ * stalls the source thread once the reader falls behind.
+ *
+ * @author Iyad Kandalaft
+ */
+public class PipelinedInputStream extends InputStream {
+	private static final int BLOCK_SIZE = 262144;
+	private static final int QUEUE_BLOCKS = 16;
+	// Tells the reader that the source is exhausted
+	private static final byte[] END_OF_STREAM = new byte[0];
+
+	private final InputStream source;
+	private final BlockingQueue<byte[]> blocks;
+	private final Thread sourceThread;
+	private volatile IOException sourceException;
+
+	private byte[] block;
+	private int blockLength;
+	private int position;
+
+	/**
+	 * @param source Stream that is read by the pipeline thread
+	 * @param name Name of the pipeline thread
+	 */
+	public PipelinedInputStream(InputStream source, String name) {
+		this.source = source;
+		this.blocks = new ArrayBlockingQueue<>(QUEUE_BLOCKS);
+		this.sourceThread = new Thread(this::readSource, name);
+		this.sourceThread.setDaemon(true);
+		this.sourceThread.start();
+	}
+
+	/*
+	 * Reads full blocks from the source until it is exhausted or fails
+	 */
+	private void readSource() {
+		try {
+			while (true) {
+				byte[] sourceBlock = new byte[BLOCK_SIZE];
+				int length = 0;
+				int read;
+				while (length < BLOCK_SIZE && (read = source.read(sourceBlock, length, BLOCK_SIZE - length)) > -1)
+					length += read;
+
+				if (length > 0)
+					blocks.put(length == BLOCK_SIZE ? sourceBlock : trim(sourceBlock, length));
+				if (length < BLOCK_SIZE)
+					break;
+			}
+		} catch (IOException e) {
+			sourceException = e;
+		} catch (InterruptedException e) {
+			// The reader closed the stream
+			return;
+		}
+
+		try {
+			blocks.put(END_OF_STREAM);
+		} catch (InterruptedException e) {
+			// The reader closed the stream
+		}
+	}
+
+	private static byte[] trim(byte[] block, int length) {
+		byte[] trimmed = new byte[length];
+		System.arraycopy(block, 0, trimmed, 0, length);
+		return trimmed;
+	}
+
+	/*
+	 * Takes the next block once the current one is consumed
+	 * @return False at the end of the stream
+	 */
+	private boolean nextBlock() throws IOException {
+		if (block == END_OF_STREAM)
+			return false;
+		if (block != null && position < blockLength)
+			return true;
+
+		try {
+			block = blocks.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + sourceThread.getName());
+		}
+		blockLength = block.length;
+		position = 0;
+
+		if (block == END_OF_STREAM) {
+			if (sourceException != null)
+				throw sourceException;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextBlock())
+			return -1;
+		return block[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0)
+			return 0;
+		if (!nextBlock())
+			return -1;
+
+		int copied = Math.min(length, blockLength - position);
+		System.arraycopy(block, position, buffer, offset, copied);
+		position += copied;
+		return copied;
+	}
+
+	@Override
+	public void close() throws IOException {
+		sourceThread.interrupt();
+		try {
+			sourceThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		source.close();
+	}
+}
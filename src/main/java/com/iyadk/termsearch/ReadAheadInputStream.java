@@ -0,0 +1,198 @@
+package com.iyadk.termsearch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a file through a ring of direct buffers that are filled by asynchronous reads ahead of
+ * the reader.  Several reads are outstanding at any time so that the latency of remote storage
+ * (e.g. NFS) is spent while the previous buffers are parsed instead of stalling the reader.
+ *
+ * Buffers are consumed in file order.  Once a buffer is consumed it is reused for the read that
+ * follows the last outstanding one.  The ring is sized to the file so that small files of a corpus
+ * of many files do not each allocate the full depth of buffers.
+ *
+ * @author Iyad Kandalaft
+ */
+public class ReadAheadInputStream extends InputStream {
+	private final AsynchronousFileChannel channel;
+	private final long size;
+	private final int bufferSize;
+	private final ByteBuffer[] buffers;
+	// File position and pending read of every buffer in the ring (null once there is nothing left to read)
+	private final long[] starts;
+	private final Future<?>[] reads;
+
+	// Buffer of the ring that is consumed next and the position of the next read to issue
+	private int head;
+	private long nextPosition;
+	// Buffer being consumed and the file position of its next byte
+	private ByteBuffer current;
+	private long position;
+
+	/**
+	 * @param path Path to the file
+	 * @param depth Most buffers read ahead, fewer if the file is smaller than the buffers
+	 * @param bufferSize Most bytes of every buffer, fewer if the file is smaller
+	 */
+	public ReadAheadInputStream(Path path, int depth, int bufferSize) throws IOException {
+		this.channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.bufferSize = (int) Math.max(1, Math.min(bufferSize, size));
+		long regions = (size + this.bufferSize - 1) / this.bufferSize;
+		this.buffers = new ByteBuffer[(int) Math.max(1, Math.min(depth, regions))];
+		this.starts = new long[buffers.length];
+		this.reads = new Future<?>[buffers.length];
+		for (int i = 0; i < buffers.length; i++)
+			buffers[i] = ByteBuffer.allocateDirect(this.bufferSize);
+		startReads(0);
+	}
+
+	/*
+	 * Returns the bytes of direct memory held by the ring
+	 */
+	long getBufferedBytes() {
+		return (long) buffers.length * bufferSize;
+	}
+
+	/*
+	 * Issues a read into every buffer of the ring starting at the position
+	 */
+	private void startReads(long startPosition) {
+		head = 0;
+		nextPosition = startPosition;
+		for (int i = 0; i < buffers.length; i++)
+			issue(i);
+	}
+
+	/*
+	 * Reads the next region of the file into the buffer
+	 */
+	private void issue(int slot) {
+		if (nextPosition >= size) {
+			reads[slot] = null;
+			return;
+		}
+		buffers[slot].clear();
+		starts[slot] = nextPosition;
+		reads[slot] = channel.read(buffers[slot], nextPosition);
+		nextPosition += bufferSize;
+	}
+
+	/*
+	 * Waits for the buffer at the head of the ring once the current one is consumed
+	 * @return False at the end of the file
+	 */
+	private boolean nextBuffer() throws IOException {
+		while (current == null || !current.hasRemaining()) {
+			if (current != null) {
+				// Reuse the consumed buffer for the read after the last outstanding one
+				current = null;
+				issue(head);
+				head = (head + 1) % buffers.length;
+			}
+			if (reads[head] == null)
+				return false;
+
+			ByteBuffer buffer = buffers[head];
+			long start = starts[head];
+			await(reads[head]);
+			reads[head] = null;
+			// A read can return fewer bytes than requested before the end of the file
+			while (buffer.hasRemaining() && start + buffer.position() < size) {
+				if (await(channel.read(buffer, start + buffer.position())) < 0)
+					break;
+			}
+			buffer.flip();
+			current = buffer;
+		}
+		return true;
+	}
+
+	private static int await(Future<?> read) throws IOException {
+		try {
+			return (Integer) read.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading ahead");
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+	}
+
+	/*
+	 * Waits for the outstanding reads so that their buffers can be reused
+	 */
+	private void awaitReads() throws IOException {
+		for (int i = 0; i < reads.length; i++) {
+			if (reads[i] != null) {
+				await(reads[i]);
+				reads[i] = null;
+			}
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextBuffer())
+			return -1;
+		position++;
+		return current.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0)
+			return 0;
+		if (!nextBuffer())
+			return -1;
+
+		int copied = Math.min(length, current.remaining());
+		current.get(buffer, offset, copied);
+		position += copied;
+		return copied;
+	}
+
+	/**
+	 * Skips within the current buffer or restarts the reads ahead at the new position
+	 */
+	@Override
+	public long skip(long bytes) throws IOException {
+		if (bytes <= 0)
+			return 0;
+		if (current != null && bytes <= current.remaining()) {
+			current.position(current.position() + (int) bytes);
+			position += bytes;
+			return bytes;
+		}
+
+		long target = Math.min(size, position + bytes);
+		awaitReads();
+		current = null;
+		startReads(target);
+		long skipped = target - position;
+		position = target;
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return current == null ? 0 : current.remaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			awaitReads();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package com.iyadk.termsearch;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the results of the search threads to the output file from a dedicated thread.
+ *
+ * The search threads hand over the results of every term as one batch and return to searching
+ * instead of contending for the file.  The writer thread drains all the queued batches at once
+ * and writes them through a large buffer.
+ *
+ * In ordered mode, the batches are written in the order of their terms in the terms file.  A batch
+ * that completes before the batch of an earlier term is held in a reorder buffer until the earlier
+ * batch arrives.  The reorder buffer is bounded and a batch that does not fit waits for room.
+ *
+ * @author Iyad Kandalaft
+ */
+public class ResultWriter implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 24;
+	private static final int QUEUE_BATCHES = 1024;
+	// Tells the writer thread that every batch was handed over
+	private static final String END_OF_RESULTS = new String();
+
+	private final Writer writer;
+	private final BlockingQueue<String> batches;
+	private final Thread writerThread;
+	private volatile IOException writerException;
+	private volatile boolean closed;
+
+	private final boolean ordered;
+	private final int reorderCapacity;
+	// Batches that completed ahead of an earlier term mapped to the sequence of their term
+	private final HashMap<Long, String> reorderBuffer = new HashMap<>();
+	private long nextSequence;
+
+	/**
+	 * @param outputFile File the results are written to
+	 * @param ordered Whether the batches are written in the order of their sequence
+	 * @param reorderCapacity Most batches held until the batch of an earlier term arrives
+	 */
+	public ResultWriter(File outputFile, boolean ordered, int reorderCapacity) throws IOException {
+		this.writer = new BufferedWriter(new FileWriter(outputFile), BUFFER_SIZE);
+		this.ordered = ordered;
+		this.reorderCapacity = Math.max(1, reorderCapacity);
+		this.batches = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+		this.writerThread = new Thread(this::writeBatches, "result-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * Hands over the results of a term to the writer thread
+	 *
+	 * @param sequence Position of the term among the searched terms starting at 0.  Every position
+	 * must be written in ordered mode, with an empty batch if the term has no results.
+	 * @param batch Result lines of the term
+	 */
+	public void write(long sequence, String batch) throws IOException, InterruptedException {
+		checkOpen();
+		if (!ordered) {
+			if (!batch.isEmpty())
+				batches.put(batch);
+			return;
+		}
+
+		synchronized (reorderBuffer) {
+			// The next batch is always accepted so the buffer cannot stall the writer
+			while (sequence != nextSequence && reorderBuffer.size() >= reorderCapacity) {
+				reorderBuffer.wait();
+				checkOpen();
+			}
+			if (sequence != nextSequence) {
+				reorderBuffer.put(sequence, batch);
+				return;
+			}
+
+			String next = batch;
+			do {
+				if (!next.isEmpty())
+					batches.put(next);
+				nextSequence++;
+			} while ((next = reorderBuffer.remove(nextSequence)) != null);
+			reorderBuffer.notifyAll();
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (writerException != null)
+			throw writerException;
+		if (closed)
+			throw new IOException("The result writer is closed");
+	}
+
+	/*
+	 * Writes the queued batches until every batch was handed over.  Batches are still drained after
+	 * a failure so that the search threads never wait on a full queue.
+	 */
+	private void writeBatches() {
+		List<String> drained = new ArrayList<>();
+		try {
+			while (true) {
+				drained.add(batches.take());
+				batches.drainTo(drained);
+				for (String batch : drained) {
+					if (batch == END_OF_RESULTS)
+						return;
+					if (writerException == null) {
+						try {
+							writer.write(batch);
+						} catch (IOException e) {
+							writerException = e;
+						}
+					}
+				}
+				drained.clear();
+			}
+		} catch (InterruptedException e) {
+			// The writer was closed without waiting for the results
+		}
+	}
+
+	/**
+	 * Waits for the writer thread to write the batches handed over and closes the file.  Batches
+	 * still held for an earlier term that was never written are discarded.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		synchronized (reorderBuffer) {
+			reorderBuffer.notifyAll();
+		}
+
+		try {
+			batches.put(END_OF_RESULTS);
+			writerThread.join();
+		} catch (InterruptedException e) {
+			writerThread.interrupt();
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			writer.close();
+		} catch (IOException e) {
+			if (writerException == null)
+				writerException = e;
+		}
+		if (writerException != null)
+			throw writerException;
+	}
+}
@@ -37,6 +37,14 @@ public class ScoreOffsetRule {
 		this.stopAfter = stopAfter;
 	}
 	
+	public String getLookupText() {
+		return lookupText;
+	}
+
+	public Pattern getLookupPattern() {
+		return lookupPattern;
+	}
+
 	/**
 	 * Determine if the input text matches the lookup pattern or contains the lookup string
 	 * @param text
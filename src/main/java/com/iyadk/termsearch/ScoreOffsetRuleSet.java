@@ -0,0 +1,444 @@
+package com.iyadk.termsearch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import com.iyadk.termsearch.ScoreOffsetRule.SearchTypeEnum;
+
+/**
+ * Score offset rules compiled once so that a title is scanned a single time for all of the rules
+ * instead of once per rule.
+ *
+ * The EXACT rules and a literal that every REGEX rule requires are compiled into an Aho-Corasick automaton
+ * that finds every rule contained in the title.  A regex is only evaluated when its literal is found.
+ * The alternatives of a regex made of top level alternations (e.g. a list of author names) each add their
+ * own literal for the rule so the rule is found through any of them.  Regexes that start with (?i) are found
+ * through the lower case literals by a second automaton that ignores ASCII case.  Regexes with an alternative
+ * that does not require a literal are evaluated for every title.
+ *
+ * The matching rules are applied in the order of the score offset file with the same semantics as looping
+ * over the rules: a matching rule with an adjustment of 0 drops the document and stopAfter ends the rules.
+ *
+ * @author Iyad Kandalaft
+ */
+public class ScoreOffsetRuleSet {
+	private static final String CASE_INSENSITIVE = "(?i)";
+
+	private final ScoreOffsetRule[] rules;
+	// Rules that are candidates for every title
+	private final long[] alwaysCandidates;
+	private final ExactMatcher exactMatcher;
+	private final ExactMatcher caseInsensitiveMatcher;
+
+	/**
+	 * @param scoreOffsetRules The rules in the order they are applied
+	 */
+	public ScoreOffsetRuleSet(List<ScoreOffsetRule> scoreOffsetRules) {
+		rules = scoreOffsetRules.toArray(new ScoreOffsetRule[0]);
+		alwaysCandidates = new long[(rules.length + 63) / 64];
+
+		List<String> lookupTexts = new ArrayList<>();
+		List<Integer> lookupRules = new ArrayList<>();
+		List<String> caseInsensitiveTexts = new ArrayList<>();
+		List<Integer> caseInsensitiveRules = new ArrayList<>();
+		for (int i = 0; i < rules.length; i++) {
+			ScoreOffsetRule rule = rules[i];
+			if (rule.searchType == SearchTypeEnum.EXACT) {
+				// indexOf always finds an empty string
+				if (rule.getLookupText().isEmpty()) {
+					setBit(alwaysCandidates, i);
+				} else {
+					lookupTexts.add(rule.getLookupText());
+					lookupRules.add(i);
+				}
+				continue;
+			}
+
+			String regex = rule.getLookupPattern().pattern();
+			boolean caseInsensitive = regex.startsWith(CASE_INSENSITIVE)
+					&& rule.getLookupPattern().flags() == Pattern.CASE_INSENSITIVE;
+			List<String> literals = requiredLiterals(caseInsensitive ? regex.substring(CASE_INSENSITIVE.length()) : regex);
+			if (literals == null) {
+				setBit(alwaysCandidates, i);
+				continue;
+			}
+			for (String literal : literals) {
+				if (caseInsensitive) {
+					caseInsensitiveTexts.add(toLowerCaseAscii(literal));
+					caseInsensitiveRules.add(i);
+				} else {
+					lookupTexts.add(literal);
+					lookupRules.add(i);
+				}
+			}
+		}
+
+		exactMatcher = new ExactMatcher(lookupTexts, lookupRules, false);
+		caseInsensitiveMatcher = new ExactMatcher(caseInsensitiveTexts, caseInsensitiveRules, true);
+	}
+
+	/**
+	 * @return The number of rules
+	 */
+	public int size() {
+		return rules.length;
+	}
+
+	/**
+	 * Applies the score adjustment of every rule that matches the title
+	 *
+	 * @param title The document title
+	 * @param score The document score
+	 * @return The adjusted score or NaN if a matching rule drops the document
+	 */
+	public double apply(String title, double score) {
+		if (rules.length == 0)
+			return score;
+
+		long[] candidates = alwaysCandidates.clone();
+		exactMatcher.match(title, candidates);
+		caseInsensitiveMatcher.match(title, candidates);
+
+		for (int word = 0; word < candidates.length; word++) {
+			long bits = candidates[word];
+			while (bits != 0) {
+				int i = word * 64 + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+
+				ScoreOffsetRule rule = rules[i];
+				if (rule.searchType == SearchTypeEnum.REGEX && !rule.getLookupPattern().matcher(title).find())
+					continue;
+
+				// Skip documents that match with a score adjustment of 0
+				if (rule.scoreAdjustment == 0)
+					return Double.NaN;
+
+				score = score + rule.scoreAdjustment;
+
+				if (rule.stopAfter)
+					return score;
+			}
+		}
+
+		return score;
+	}
+
+	/**
+	 * Finds a literal for every top level alternative of the regex so that every match of the regex
+	 * contains one of them.  A regex wrapped in a single group is split on the alternations of the group.
+	 *
+	 * @param regex The regex of a rule
+	 * @return The literals or null if an alternative does not require one
+	 */
+	static List<String> requiredLiterals(String regex) {
+		List<String> literals = new ArrayList<>();
+		for (String alternative : splitAlternatives(unwrapGroup(regex))) {
+			String literal = requiredLiteral(alternative);
+			if (literal == null)
+				return null;
+			literals.add(literal);
+		}
+		return literals;
+	}
+
+	/*
+	 * Removes a capturing or non capturing group that encloses the whole regex
+	 */
+	private static String unwrapGroup(String regex) {
+		int start = regex.startsWith("(?:") ? 3 : regex.startsWith("(") && !regex.startsWith("(?") ? 1 : -1;
+		if (start < 0 || regex.length() < 2)
+			return regex;
+		return scan(regex, null) == regex.length() - 1 ? regex.substring(start, regex.length() - 1) : regex;
+	}
+
+	/*
+	 * Splits the regex on the alternations that are outside of groups and classes
+	 */
+	private static List<String> splitAlternatives(String regex) {
+		List<String> alternatives = new ArrayList<>();
+		scan(regex, alternatives);
+		return alternatives;
+	}
+
+	/*
+	 * Walks the regex skipping escapes and classes, adding its top level alternatives if requested
+	 * @return The position of the parenthesis that closes the group opened by the first character or -1
+	 */
+	private static int scan(String regex, List<String> alternatives) {
+		int closing = -1;
+		int depth = 0;
+		int start = 0;
+		int i = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i += 2;
+				continue;
+			}
+			if (c == '[') {
+				// Skip the class including escaped characters and a leading ]
+				i++;
+				if (i < regex.length() && regex.charAt(i) == '^')
+					i++;
+				if (i < regex.length() && regex.charAt(i) == ']')
+					i++;
+				int classDepth = 1;
+				while (i < regex.length() && classDepth > 0) {
+					char classChar = regex.charAt(i++);
+					if (classChar == '\\')
+						i++;
+					else if (classChar == '[')
+						classDepth++;
+					else if (classChar == ']')
+						classDepth--;
+				}
+				continue;
+			}
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				if (--depth == 0 && closing < 0 && regex.charAt(0) == '(')
+					closing = i;
+			} else if (c == '|' && depth == 0 && alternatives != null) {
+				alternatives.add(regex.substring(start, i));
+				start = i + 1;
+			}
+			i++;
+		}
+		if (alternatives != null)
+			alternatives.add(regex.substring(start));
+		return closing;
+	}
+
+	/**
+	 * Finds the longest run of literal characters that every match of the regex contains
+	 *
+	 * Only characters outside of groups and classes are considered and any construct that could
+	 * change how they match (top level alternations, inline flags, quoting) disables the literal.
+	 *
+	 * @param regex The regex of a rule
+	 * @return The literal or null if the regex does not require one
+	 */
+	static String requiredLiteral(String regex) {
+		if (splitAlternatives(regex).size() > 1 || regex.contains("(?") || regex.contains("\\Q"))
+			return null;
+
+		String longest = "";
+		StringBuilder run = new StringBuilder();
+		int depth = 0;
+		int i = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			int next = i + 1;
+			char literal = 0;
+			boolean isLiteral = false;
+
+			if (c == '\\' && next < regex.length()) {
+				char escaped = regex.charAt(next++);
+				// Escaped code points and named classes continue past the escaped character
+				if ("xu0cpPNk".indexOf(escaped) > -1)
+					return null;
+				// Escaped punctuation is literal while escaped letters and digits are classes or references
+				if (!Character.isLetterOrDigit(escaped)) {
+					literal = escaped;
+					isLiteral = depth == 0;
+				}
+			} else if (c == '[') {
+				// Skip the class including escaped characters and a leading ]
+				next = i + 1;
+				if (next < regex.length() && regex.charAt(next) == '^')
+					next++;
+				if (next < regex.length() && regex.charAt(next) == ']')
+					next++;
+				int classDepth = 1;
+				while (next < regex.length() && classDepth > 0) {
+					char classChar = regex.charAt(next++);
+					if (classChar == '\\')
+						next++;
+					else if (classChar == '[')
+						classDepth++;
+					else if (classChar == ']')
+						classDepth--;
+				}
+			} else if (c == '{') {
+				// Skip the bounds of the quantifier
+				next = regex.indexOf('}', i) + 1;
+				if (next == 0)
+					return null;
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if ("^$.*+?{}".indexOf(c) < 0) {
+				literal = c;
+				isLiteral = depth == 0;
+			}
+
+			// A quantifier that allows zero repetitions makes the previous character optional
+			char quantifier = next < regex.length() ? regex.charAt(next) : 0;
+			boolean optional = quantifier == '?' || quantifier == '*' || quantifier == '{';
+			if (isLiteral && !optional) {
+				run.append(literal);
+				if (quantifier == '+')
+					isLiteral = false;
+			} else {
+				isLiteral = false;
+			}
+
+			if (!isLiteral) {
+				if (run.length() > longest.length())
+					longest = run.toString();
+				run.setLength(0);
+			}
+			i = next;
+		}
+		if (run.length() > longest.length())
+			longest = run.toString();
+
+		return longest.length() < 2 ? null : longest;
+	}
+
+	/*
+	 * Lower cases the ASCII letters only like the (?i) flag without unicode case
+	 */
+	private static char toLowerCaseAscii(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	private static String toLowerCaseAscii(String text) {
+		char[] chars = text.toCharArray();
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = toLowerCaseAscii(chars[i]);
+		return new String(chars);
+	}
+
+	private static void setBit(long[] bits, int i) {
+		bits[i >>> 6] |= 1L << i;
+	}
+
+	/**
+	 * Aho-Corasick automaton that marks every rule whose text is contained in a title
+	 */
+	private static class ExactMatcher {
+		// Sorted transition characters and target states of every state
+		private final char[][] labels;
+		private final int[][] targets;
+		private final int[] fail;
+		// Rules matched when reaching every state including the ones of its suffixes
+		private final int[][] outputs;
+		// Transitions of the root state for every character since most characters restart the search
+		private final int[] rootTargets;
+		// Lower cases the ASCII letters of the text before matching lower case lookup texts
+		private final boolean ignoreCase;
+
+		ExactMatcher(List<String> lookupTexts, List<Integer> lookupRules, boolean ignoreCase) {
+			this.ignoreCase = ignoreCase;
+			List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+			List<List<Integer>> trieOutputs = new ArrayList<>();
+			trie.add(new TreeMap<>());
+			trieOutputs.add(new ArrayList<>());
+
+			for (int i = 0; i < lookupTexts.size(); i++) {
+				int state = 0;
+				for (char c : lookupTexts.get(i).toCharArray()) {
+					Integer next = trie.get(state).get(c);
+					if (next == null) {
+						next = trie.size();
+						trie.get(state).put(c, next);
+						trie.add(new TreeMap<>());
+						trieOutputs.add(new ArrayList<>());
+					}
+					state = next;
+				}
+				trieOutputs.get(state).add(lookupRules.get(i));
+			}
+
+			int states = trie.size();
+			labels = new char[states][];
+			targets = new int[states][];
+			for (int state = 0; state < states; state++) {
+				labels[state] = new char[trie.get(state).size()];
+				targets[state] = new int[trie.get(state).size()];
+				int j = 0;
+				for (Map.Entry<Character, Integer> transition : trie.get(state).entrySet()) {
+					labels[state][j] = transition.getKey();
+					targets[state][j++] = transition.getValue();
+				}
+			}
+
+			rootTargets = new int[Character.MAX_VALUE + 1];
+			for (int j = 0; j < labels[0].length; j++)
+				rootTargets[labels[0][j]] = targets[0][j];
+
+			// Breadth first so that the failure state of a parent is known before its children
+			fail = new int[states];
+			outputs = new int[states][];
+			outputs[0] = toArray(trieOutputs.get(0));
+			Queue<Integer> queue = new ArrayDeque<>();
+			for (int target : targets[0]) {
+				outputs[target] = toArray(trieOutputs.get(target));
+				queue.add(target);
+			}
+			while (!queue.isEmpty()) {
+				int state = queue.poll();
+				for (int j = 0; j < labels[state].length; j++) {
+					char c = labels[state][j];
+					int target = targets[state][j];
+
+					int failState = fail[state];
+					int next;
+					while ((next = transition(failState, c)) < 0 && failState != 0)
+						failState = fail[failState];
+					fail[target] = next < 0 ? 0 : next;
+
+					int[] own = toArray(trieOutputs.get(target));
+					int[] inherited = outputs[fail[target]];
+					int[] combined = Arrays.copyOf(own, own.length + inherited.length);
+					System.arraycopy(inherited, 0, combined, own.length, inherited.length);
+					outputs[target] = combined;
+					queue.add(target);
+				}
+			}
+		}
+
+		/**
+		 * Marks the rules of every lookup text contained in the text
+		 */
+		void match(String text, long[] candidates) {
+			if (labels[0].length == 0)
+				return;
+
+			int state = 0;
+			for (int i = 0; i < text.length(); i++) {
+				char c = ignoreCase ? toLowerCaseAscii(text.charAt(i)) : text.charAt(i);
+				int next;
+				while ((next = transition(state, c)) < 0 && state != 0)
+					state = fail[state];
+				state = next < 0 ? 0 : next;
+
+				for (int rule : outputs[state])
+					setBit(candidates, rule);
+			}
+		}
+
+		private int transition(int state, char c) {
+			if (state == 0)
+				return rootTargets[c] == 0 ? -1 : rootTargets[c];
+			int j = Arrays.binarySearch(labels[state], c);
+			return j < 0 ? -1 : targets[state][j];
+		}
+
+		private static int[] toArray(List<Integer> values) {
+			int[] array = new int[values.size()];
+			for (int i = 0; i < array.length; i++)
+				array[i] = values.get(i);
+			return array;
+		}
+	}
+}
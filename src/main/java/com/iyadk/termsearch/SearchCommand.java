@@ -54,6 +54,53 @@ public class SearchCommand implements Callable<Integer> {
 				required = false)
 		private Integer threads;
 
+		@Option(names={"--search-execution"},
+				description="How the terms are spread across the search threads: ${COMPLETION-CANDIDATES}. "
+						+ "FIXED searches on --threads threads. "
+						+ "ELASTIC (experimental) runs more terms at once while the searches wait on the index and as many as the cores once it is cached; "
+						+ "it showed no gain over FIXED on a local disk (default: ${DEFAULT-VALUE})",
+				defaultValue="FIXED",
+				required = false)
+		private SearchIndex.SearchExecution searchExecution;
+
+		@Option(names={"--ordered-output"},
+				description="Write the results in the order of the terms in the terms file (default: ${DEFAULT-VALUE})",
+				defaultValue="false",
+				required = false)
+		private boolean orderedOutput;
+
+		@Option(names={"--segment-threads"},
+				description="Threads that search the segments of frequent terms in parallel, 0 to search every term on one thread (default: ${DEFAULT-VALUE})",
+				defaultValue="0",
+				type=Integer.class,
+				paramLabel="NUM",
+				required = false)
+		private Integer segmentThreads;
+
+		@Option(names={"--parallel-min-doc-freq"},
+				description="Documents that the rarest word of a term must appear in for its segments to be searched in parallel (default: ${DEFAULT-VALUE})",
+				defaultValue="100000",
+				type=Long.class,
+				paramLabel="NUM",
+				required = false)
+		private Long parallelMinDocFreq;
+
+		@Option(names={"--slice-max-docs"},
+				description="Most documents in a group of segments searched by one segment thread (default: ${DEFAULT-VALUE})",
+				defaultValue="250000",
+				type=Integer.class,
+				paramLabel="NUM",
+				required = false)
+		private Integer sliceMaxDocs;
+
+		@Option(names={"--slice-max-segments"},
+				description="Most segments in a group of segments searched by one segment thread (default: ${DEFAULT-VALUE})",
+				defaultValue="5",
+				type=Integer.class,
+				paramLabel="NUM",
+				required = false)
+		private Integer sliceMaxSegments;
+
 		@Option(names = { "-h", "--help" },
 				usageHelp = true,
 				description = "Displays this message")
@@ -110,6 +157,11 @@ public class SearchCommand implements Callable<Integer> {
 				type=Double.class
 				)
 		private Double expandFactor;
+
+		@Option(names={"--progressive"},
+				description="Highlight and score the matches in small batches and stop once no other match can rank before the top results (default: ${DEFAULT-VALUE})",
+				defaultValue="false")
+		private boolean progressiveSearch;
 	}
 
 	@ArgGroup(
@@ -276,6 +328,11 @@ public class SearchCommand implements Callable<Integer> {
 		// Initial the searcher and set general options
 		SearchIndex indexSearcher = new SearchIndex(generalOptions.termsFile, generalOptions.outputFile, generalOptions.indexDir);
 		indexSearcher.setNumThreads(generalOptions.threads);
+		indexSearcher.setOrderedOutput(generalOptions.orderedOutput);
+		indexSearcher.setSearchExecution(generalOptions.searchExecution);
+		indexSearcher.setSegmentThreads(generalOptions.segmentThreads);
+		indexSearcher.setParallelMinDocFreq(generalOptions.parallelMinDocFreq);
+		indexSearcher.setSliceLimits(generalOptions.sliceMaxDocs, generalOptions.sliceMaxSegments);
 
 		// Configure scoring options
 		ExcerptScorer excerptScorer = new ExcerptScorer();
@@ -313,6 +370,7 @@ public class SearchCommand implements Callable<Integer> {
 		indexSearcher.setExpandSearch(searchSpaceOptions.expandSearch);
 		indexSearcher.setExpandIterations(searchSpaceOptions.expandIterations);
 		indexSearcher.setExpandFactor(searchSpaceOptions.expandFactor);
+		indexSearcher.setProgressiveSearch(searchSpaceOptions.progressiveSearch);
 		indexSearcher.setMatchLimit(searchSpaceOptions.matchLimit);
 		indexSearcher.setResultLimit(searchSpaceOptions.resultLimit);
 		indexSearcher.setSourceLimit(searchSpaceOptions.sourceLimit);
@@ -1,28 +1,135 @@
 package com.iyadk.termsearch;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
+/**
+ * Counts the results written for every document (source) across the searches of all the terms.
+ *
+ * The docIds are line numbers so the counts are kept in pages of atomic integers indexed by the docId.
+ * A page is only allocated once one of its documents has a result.  Reads and increments never lock;
+ * only allocating a page or growing the table past the docIds of the index does.  The pages of docIds
+ * past the largest table that can be allocated are kept in a map instead.
+ *
+ * A document that never had a result has a match count of 1.
+ */
 public class SearchDocumentMatches {
-	private static ConcurrentHashMap<Double, Double> docMatches = new ConcurrentHashMap<>();
-	
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private static final int DEFAULT_PAGES = 16;
+	// The table covers the docIds below 2^31, past which pages are looked up in the map
+	private static final int MAX_PAGES = 1 << (31 - PAGE_BITS);
+
+	private static final Object growLock = new Object();
+	// Results of every document beyond the first match count of 1
+	private static volatile AtomicIntegerArray[] pages = new AtomicIntegerArray[DEFAULT_PAGES];
+	private static volatile ConcurrentHashMap<Long, AtomicIntegerArray> sparsePages = new ConcurrentHashMap<>();
+
+	/**
+	 * Sizes the table for the docIds of an index so that it does not grow while searching.
+	 * The counts of the documents already matched are kept.
+	 *
+	 * @param maxDocID The largest docId expected in the index
+	 */
+	public static void ensureCapacity(long maxDocID) {
+		page(Math.min(toPageIndex(maxDocID), MAX_PAGES - 1), false);
+	}
+
+	/**
+	 * @return The number of results of the document plus one, read without locking
+	 */
 	public static double getDocMatchCount(double docID) {
-		if (docMatches.containsKey(docID))
-			return docMatches.get(docID);
-		else
+		long pageIndex = toPageIndex(docID);
+		AtomicIntegerArray page;
+		if (pageIndex >= MAX_PAGES) {
+			page = sparsePages.get(pageIndex);
+		} else {
+			AtomicIntegerArray[] current = pages;
+			page = pageIndex < current.length ? current[(int) pageIndex] : null;
+		}
+		if (page == null)
 			return 1;
+		return 1 + page.get(toOffset(docID));
 	}
-	
-	public static ConcurrentHashMap<Double,Double> getAllMatches(){
-		return docMatches;
-	}
-	
+
+	/**
+	 * Counts a result of the document
+	 *
+	 * @return The match count of the document before the result
+	 */
 	public static double incrementDocMatchCount(double docID) {
-		Double count;
-		synchronized (docMatches) {
-			count = docMatches.put(docID, getDocMatchCount(docID) + 1);
+		return page(toPageIndex(docID), true).getAndIncrement(toOffset(docID)) + 1;
+	}
+
+	/**
+	 * Counts a result of the document unless it would exceed the limit.  The check and the increment
+	 * are atomic so concurrent searches never count more results than the limit allows.
+	 *
+	 * @param docID DocId of the document
+	 * @param limit Largest match count that a document can have before the result
+	 * @return True if the result was counted
+	 */
+	public static boolean tryIncrementDocMatchCount(double docID, int limit) {
+		AtomicIntegerArray page = page(toPageIndex(docID), true);
+		int offset = toOffset(docID);
+		while (true) {
+			int results = page.get(offset);
+			if (1 + results > limit)
+				return false;
+			if (page.compareAndSet(offset, results, results + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Forgets the results of every document so that a new run of the searches starts over.
+	 * Must not be called while searching.
+	 */
+	public static void reset() {
+		synchronized (growLock) {
+			pages = new AtomicIntegerArray[pages.length];
+			sparsePages = new ConcurrentHashMap<>();
+		}
+	}
+
+	private static long toPageIndex(double docID) {
+		if (docID < 0 || docID >= Long.MAX_VALUE)
+			throw new IllegalArgumentException("The docId " + docID + " cannot be counted");
+		return (long) docID >>> PAGE_BITS;
+	}
+
+	private static int toOffset(double docID) {
+		return (int) ((long) docID & PAGE_MASK);
+	}
+
+	/*
+	 * Returns the page, growing the table to hold it and allocating it if requested
+	 */
+	private static AtomicIntegerArray page(long pageIndex, boolean allocate) {
+		if (pageIndex >= MAX_PAGES) {
+			if (!allocate)
+				return sparsePages.get(pageIndex);
+			return sparsePages.computeIfAbsent(pageIndex, index -> new AtomicIntegerArray(PAGE_SIZE));
+		}
+
+		int index = (int) pageIndex;
+		AtomicIntegerArray[] current = pages;
+		if (index < current.length && (current[index] != null || !allocate))
+			return current[index];
+
+		synchronized (growLock) {
+			current = pages;
+			if (index >= current.length) {
+				int length = (int) Math.min(MAX_PAGES, Math.max(index + 1, current.length * 2L));
+				AtomicIntegerArray[] grown = new AtomicIntegerArray[length];
+				System.arraycopy(current, 0, grown, 0, current.length);
+				current = grown;
+			}
+			if (allocate && current[index] == null)
+				current[index] = new AtomicIntegerArray(PAGE_SIZE);
+			pages = current;
+			return current[index];
 		}
-		if (count == null)
-			return 1;
-		return count;
 	}
-}
\ No newline at end of file
+}
@@ -1,9 +1,7 @@
 package com.iyadk.termsearch;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
@@ -12,28 +10,59 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Document;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.expressions.Expression;
 import org.apache.lucene.expressions.SimpleBindings;
 import org.apache.lucene.expressions.js.JavascriptCompiler;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queries.function.FunctionScoreQuery;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.DoubleValues;
 import org.apache.lucene.search.DoubleValuesSource;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.IndexSearcher.LeafSlice;
 import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopDocsCollector;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
 import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
 import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter.OffsetSource;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.MMapDirectory;
 
@@ -48,9 +77,38 @@ public class SearchIndex {
 	private int highlightMax = 180;
 	private String scoringFormula = "_score / score";
 	private DoubleValuesSource scoringMethod;
+	// Sort of the index that ranks matches like the scoring formula or null if every match must be scored
+	private Sort scoreSort;
 	private boolean explainScoring = false;
 	// private MatchList excludedWords;
 	private int numThreads = 4;
+	private boolean orderedOutput = false;
+	private SearchExecution searchExecution = SearchExecution.FIXED;
+	private boolean progressiveSearch = false;
+	// Threads that search the segments of a frequent term in parallel (0 to search every term on one thread)
+	private int segmentThreads = 0;
+	private long parallelMinDocFreq = 100000;
+	private int sliceMaxDocs = 250000;
+	private int sliceMaxSegments = 5;
+	// Searcher of the current search that fans out across segments or null if segment threads are disabled
+	private IndexSearcher parallelSearcher;
+	private final LongAdder parallelSearches = new LongAdder();
+	// Matches collected and highlighted by the searches of the terms
+	private final LongAdder progressiveMatches = new LongAdder();
+	private final LongAdder progressiveHighlights = new LongAdder();
+	// Highlighting components of every search thread of the current search
+	private ThreadLocal<HighlightContext> highlightContexts;
+	// Most distinct document scores checked to find whether the index sort ranks like the scoring formula
+	private static final int MAX_SORTED_SCORES = 100000;
+	// Most aliases of a document checked for a title below the source limit
+	private static final int MAX_ALIASES = 1000;
+	// Stored fields loaded from indexes built without doc values for the title or the content ID
+	private static final Set<String> TITLE_FIELDS = Collections.singleton("title");
+	private static final Set<String> CONTENT_ID_FIELDS = Collections.singleton(IndexCreator.CONTENT_ID_FIELD);
+	// Terms read ahead of the searches for every search thread
+	private static final int PENDING_TERMS_PER_THREAD = 16;
+	// Most terms searched at once in ELASTIC mode for every core
+	private static final int ELASTIC_SEARCHES_PER_CORE = 8;
 	private ExcerptScorer excerptScorer;
 	private boolean expandSearch = true;
 	private int expandIterations = 3;
@@ -58,6 +116,9 @@ public class SearchIndex {
 
 	private final Directory dirIndex;
 	private final IndexReader reader;
+	private final IndexProfile indexProfile;
+	// Whether duplicate contents were indexed as aliases of the document holding the content
+	private final boolean dedupContent;
 	private final Analyzer analyzer;
 	public final IndexSearcher searcher;
 
@@ -100,8 +161,16 @@ public class SearchIndex {
 
 		/* Instantiate searcher using memory mapped directory */
 		dirIndex = MMapDirectory.open(indexPath);
-		reader = DirectoryReader.open(dirIndex);
+		DirectoryReader directoryReader = DirectoryReader.open(dirIndex);
+		reader = directoryReader;
 		searcher = new IndexSearcher(reader);
+
+		// Indexes created before profiles were recorded let the highlighter detect the offset source
+		String profile = directoryReader.getIndexCommit().getUserData().get(IndexProfile.COMMIT_KEY);
+		indexProfile = profile == null ? null : IndexProfile.valueOf(profile);
+		dedupContent = Boolean.parseBoolean(directoryReader.getIndexCommit().getUserData().get(IndexCreator.DEDUP_CONTENT_KEY));
+		// Most docIds are close to the number of documents and the table grows for the others
+		SearchDocumentMatches.ensureCapacity(reader.maxDoc());
 		analyzer = UniqueAnalyzer.getInstance().analyzer;
 
 		excerptScorer = new ExcerptScorer();
@@ -155,11 +224,171 @@ public class SearchIndex {
 		}
 
 		try {
-			scoringMethod = JavascriptCompiler.compile(scoringFormula, functions, getClass().getClassLoader())
-					.getDoubleValuesSource(bindings);		
+			Expression expression = JavascriptCompiler.compile(scoringFormula, functions, getClass().getClassLoader());
+			scoringMethod = expression.getDoubleValuesSource(bindings);
+			scoreSort = findScoreSort(expression);
 		} catch (ParseException | SecurityException e) {
 			System.out.println("The scoring method could not be parsed or contains an invalid method");
 			System.exit(1);
+		} catch (IOException e) {
+			System.out.println("The document scores could not be read from the index");
+			scoreSort = null;
+		}
+
+		if (scoreSort != null)
+			System.out.println("The index is sorted by the document score so searches stop collecting after the top matches");
+	}
+
+	/**
+	 * Finds the order of the index that ranks matches the same as the scoring formula
+	 *
+	 * This is only possible when the index is sorted by the document score and the formula depends on nothing
+	 * but the document score in a strictly increasing or decreasing way over the scores in the index.
+	 * Formulas bound to anything else are rejected without reading the index.  Otherwise the formula is
+	 * evaluated on the distinct scores, which are found by skipping over the runs of equal scores of the
+	 * sorted segments rather than reading the score of every document.
+	 *
+	 * @param expression The compiled scoring formula
+	 * @return The sort of the index or null if matches must be scored
+	 */
+	private Sort findScoreSort(Expression expression) throws IOException {
+		if (!Arrays.equals(expression.variables, new String[] { "score" }) || expression.sourceText.contains("random"))
+			return null;
+
+		Sort indexSort = null;
+		for (LeafReaderContext leaf : reader.leaves()) {
+			Sort leafSort = leaf.reader().getMetaData().getSort();
+			if (leafSort == null || !leafSort.getSort()[0].getField().equals("score")
+					|| (indexSort != null && !indexSort.equals(leafSort)))
+				return null;
+			indexSort = leafSort;
+		}
+		if (indexSort == null)
+			return null;
+
+		// Document scores are a few distinct values (title score and score offsets)
+		double[] scores = new double[64];
+		int scoreCount = 0;
+		for (LeafReaderContext leaf : reader.leaves()) {
+			SortedScores leafScores = new SortedScores(leaf.reader());
+			int doc = -1;
+			while ((doc = leafScores.nextRun(doc)) != DocIdSetIterator.NO_MORE_DOCS) {
+				if (scoreCount == MAX_SORTED_SCORES)
+					return null;
+				if (scoreCount == scores.length)
+					scores = Arrays.copyOf(scores, scoreCount * 2);
+				scores[scoreCount++] = leafScores.score;
+			}
+		}
+		Arrays.sort(scores, 0, scoreCount);
+
+		// Lucene ranks by the float value of the formula
+		double[] score = new double[1];
+		DoubleValues[] scoreValue = new DoubleValues[] { new DoubleValues() {
+			@Override
+			public double doubleValue() {
+				return score[0];
+			}
+
+			@Override
+			public boolean advanceExact(int doc) {
+				return true;
+			}
+		} };
+		int direction = 0;
+		Float previous = null;
+		for (int i = 0; i < scoreCount; i++) {
+			// The segments share most of their scores
+			if (i > 0 && Double.compare(scores[i], scores[i - 1]) == 0)
+				continue;
+			score[0] = scores[i];
+			float current = (float) expression.evaluate(scoreValue);
+			if (Float.isNaN(current))
+				return null;
+			if (previous != null) {
+				int comparison = Float.compare(current, previous);
+				if (comparison == 0 || (direction != 0 && comparison != direction))
+					return null;
+				direction = comparison;
+			}
+			previous = current;
+		}
+
+		// A formula that increases with the document score ranks the highest document scores first
+		if (direction != 0 && indexSort.getSort()[0].getReverse() != (direction > 0))
+			return null;
+		return new Sort(indexSort.getSort()[0]);
+	}
+
+	/*
+	 * Finds the distinct scores of a segment sorted by score.  A run of equal scores is skipped by probing
+	 * documents at growing distances and then bisecting, so only a few documents are read per distinct score.
+	 */
+	static class SortedScores {
+		private final LeafReader leafReader;
+		private final int maxDoc;
+		private final boolean dense;
+		private NumericDocValues scoreValues;
+		// Score of the run found by nextRun
+		double score;
+
+		SortedScores(LeafReader leafReader) throws IOException {
+			this.leafReader = leafReader;
+			this.maxDoc = leafReader.maxDoc();
+			this.scoreValues = DocValues.getNumeric(leafReader, "score");
+			// Documents without a score are read one by one
+			this.dense = scoreValues.cost() == maxDoc;
+		}
+
+		/*
+		 * Returns the first document of the run of scores that follows the run starting at the document
+		 * (-1 for the first run), or NO_MORE_DOCS after the last run
+		 */
+		int nextRun(int doc) throws IOException {
+			long bits = Double.doubleToLongBits(score);
+			int next;
+			if (!dense) {
+				next = scoreValues.nextDoc();
+				while (doc >= 0 && next != DocIdSetIterator.NO_MORE_DOCS && scoreValues.longValue() == bits)
+					next = scoreValues.nextDoc();
+				if (next != DocIdSetIterator.NO_MORE_DOCS)
+					score = Double.longBitsToDouble(scoreValues.longValue());
+				return next;
+			}
+
+			next = 0;
+			if (doc >= 0) {
+				// Gallop past the documents of the run and bisect to its end
+				int low = doc;
+				int step = 1;
+				next = doc + 1;
+				while (next < maxDoc && scoreBits(next) == bits) {
+					low = next;
+					step <<= 1;
+					next = (int) Math.min(maxDoc, (long) low + step);
+				}
+				while (next - low > 1) {
+					int middle = (low + next) >>> 1;
+					if (scoreBits(middle) == bits)
+						low = middle;
+					else
+						next = middle;
+				}
+			}
+			if (next >= maxDoc)
+				return DocIdSetIterator.NO_MORE_DOCS;
+			score = Double.longBitsToDouble(scoreBits(next));
+			return next;
+		}
+
+		/*
+		 * Reads the score of a document, starting over when going back since doc values only move forward
+		 */
+		private long scoreBits(int doc) throws IOException {
+			if (doc <= scoreValues.docID())
+				scoreValues = DocValues.getNumeric(leafReader, "score");
+			scoreValues.advanceExact(doc);
+			return scoreValues.longValue();
 		}
 	}
 
@@ -305,9 +534,92 @@ public class SearchIndex {
 		this.numThreads = numThreads;
 	}
 
+	public int getSegmentThreads() {
+		return segmentThreads;
+	}
+
+	/**
+	 * @param segmentThreads Threads that search the segments of a frequent term in parallel (0 to disable)
+	 */
+	public void setSegmentThreads(int segmentThreads) {
+		this.segmentThreads = segmentThreads;
+	}
+
+	public long getParallelMinDocFreq() {
+		return parallelMinDocFreq;
+	}
+
+	/**
+	 * @param parallelMinDocFreq Documents that the rarest word of a term must appear in for the term
+	 * to be searched across the segments in parallel
+	 */
+	public void setParallelMinDocFreq(long parallelMinDocFreq) {
+		this.parallelMinDocFreq = parallelMinDocFreq;
+	}
+
+	/**
+	 * Sets how the segments are grouped into the slices that are searched in parallel
+	 * 
+	 * @param sliceMaxDocs Most documents of a slice unless a single segment is larger
+	 * @param sliceMaxSegments Most segments of a slice
+	 */
+	public void setSliceLimits(int sliceMaxDocs, int sliceMaxSegments) {
+		this.sliceMaxDocs = sliceMaxDocs;
+		this.sliceMaxSegments = sliceMaxSegments;
+	}
+
+	public boolean isProgressiveSearch() {
+		return progressiveSearch;
+	}
+
+	/**
+	 * @param progressiveSearch Whether matches are highlighted in batches until the top results are known
+	 */
+	public void setProgressiveSearch(boolean progressiveSearch) {
+		this.progressiveSearch = progressiveSearch;
+	}
+
+	/**
+	 * How the terms are spread across the search threads
+	 * FIXED searches the terms on --threads threads
+	 * ELASTIC searches as many terms at once as keeps the cores busy, which grows while the searches
+	 * wait on a cold index and shrinks to the number of cores once it is cached.  It is experimental and
+	 * only chosen explicitly since it did not beat FIXED on a local disk.
+	 */
+	public static enum SearchExecution {
+		FIXED, ELASTIC
+	}
+
+	public SearchExecution getSearchExecution() {
+		return searchExecution;
+	}
+
+	/**
+	 * @param searchExecution How the terms are spread across the search threads
+	 */
+	public void setSearchExecution(SearchExecution searchExecution) {
+		this.searchExecution = searchExecution;
+	}
+
+	public boolean isOrderedOutput() {
+		return orderedOutput;
+	}
+
+	/**
+	 * @param orderedOutput Whether results are written in the order of the terms in the terms file
+	 */
+	public void setOrderedOutput(boolean orderedOutput) {
+		this.orderedOutput = orderedOutput;
+	}
+
 	/*
 	 * Search for all the terms/phrases in the supplied terms file
 	 *
+	 * The terms are streamed to the search threads with a bounded number of terms waiting for a thread.
+	 * If a search fails, the remaining terms are not searched and the failure is thrown once the searches
+	 * in flight complete.  The results of every term are handed over to a single writer thread, in the
+	 * order of the terms file if ordered output is enabled.
+	 *
 	 * @param field Name of the field to search
 	 */
 	public void searchAll(String field) throws IOException, InvalidTokenOffsetsException, InterruptedException {
@@ -321,180 +633,441 @@ public class SearchIndex {
 		if (! outputFile.exists())
 			outputFile.createNewFile();
 
-		/*
-		 * Write output to a file using buffering.  Large memory buffers reduce IOPS and blocking.
-		 */
-		FileWriter fileWriter = new FileWriter(outputFile);
-		BufferedWriter bufferedWriter = new BufferedWriter(fileWriter, 2^24);
-
-		// Use the correct line separator based on the operating system
-		String lnSeperator = System.lineSeparator();
-
-        ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+		// Elastic searches are let through by a limiter that follows the time they spend off the cores
+		SearchLimiter searchLimiter = null;
+		int pendingTerms = numThreads * PENDING_TERMS_PER_THREAD;
+		if (searchExecution == SearchExecution.ELASTIC) {
+			int cores = Runtime.getRuntime().availableProcessors();
+			searchLimiter = new SearchLimiter(cores, cores * ELASTIC_SEARCHES_PER_CORE);
+			pendingTerms = cores * ELASTIC_SEARCHES_PER_CORE;
+		}
 
-		// Read the file using a memory buffer to improve performance
-		try (BufferedReader in = Files.newBufferedReader(termsPath, StandardCharsets.UTF_8)) {
-			String phrase;
-			while ((phrase = in.readLine()) != null) {
-				// Skip empty lines
-				if (phrase.trim().length() == 0) {
-					continue;
+		// Results are written by a dedicated thread so the search threads never wait on the file
+		ResultWriter resultWriter = new ResultWriter(outputFile, orderedOutput, pendingTerms);
+
+		progressiveMatches.reset();
+		progressiveHighlights.reset();
+
+		// Every search thread builds its highlighting components once with the current options
+		highlightContexts = ThreadLocal.withInitial(() -> new HighlightContext(field));
+
+		// Frequent terms are searched across the segments by a separate pool so the search threads never wait on each other
+		ExecutorService segmentPool = null;
+		parallelSearches.reset();
+		if (segmentThreads > 0) {
+			segmentPool = Executors.newFixedThreadPool(segmentThreads, runnable -> {
+				Thread thread = new Thread(runnable, "segment-search");
+				thread.setDaemon(true);
+				return thread;
+			});
+			final int maxDocs = sliceMaxDocs;
+			final int maxSegments = sliceMaxSegments;
+			parallelSearcher = new IndexSearcher(reader, segmentPool) {
+				@Override
+				protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+					return groupSegments(leaves, maxDocs, maxSegments);
 				}
+			};
+		}
 
-				class subSearch implements Runnable {
-					private final String searchString;
-					subSearch(String s) {
-						this.searchString = s;
-					}
+		// Every term let through by the limiter starts on its own thread right away
+		ExecutorService threadPool = searchLimiter == null ? Executors.newFixedThreadPool(numThreads) : Executors.newCachedThreadPool();
+		// Terms are only read once a search slot is free so memory does not grow with the terms file
+		Semaphore pendingSearches = new Semaphore(pendingTerms);
+		final SearchLimiter limiter = searchLimiter;
+		AtomicReference<Throwable> searchFailure = new AtomicReference<>();
 
-					@Override
-					public void run() {
-						Query query = getQuery(searchString, field);
-						StringBuilder scoringExplanation = new StringBuilder();
+		try {
+			// Read the file using a memory buffer to improve performance
+			try (BufferedReader in = Files.newBufferedReader(termsPath, StandardCharsets.UTF_8)) {
+				String phrase;
+				long sequence = 0;
+				while ((phrase = in.readLine()) != null && searchFailure.get() == null) {
+					// Skip empty lines
+					if (phrase.trim().length() == 0) {
+						continue;
+					}
 
-						TopDocs searchResults = null;
-						String[] fragments;
+					if (limiter == null)
+						pendingSearches.acquire();
+					else
+						limiter.acquire();
+					final String searchString = phrase;
+					final long termSequence = sequence++;
+					threadPool.execute(() -> {
+						String results = "";
+						long startCpuNanos = limiter == null ? 0 : limiter.startSearch();
+						try {
+							// Searches queued before a failure are abandoned
+							if (searchFailure.get() == null)
+								results = searchTerm(searchString, field);
+						} catch (IOException | RuntimeException e) {
+							searchFailure.compareAndSet(null, e);
+						}
 
 						try {
-							PriorityQueue<Excerpt> excerptsQueue = new PriorityQueue<>(1, new ExcerptComparator());
-							
-							int i = 0;
-							// TODO: Bug with expansion returning the correct results
-							searchIterLoop: for (int searchIteration = 1; searchIteration <= expandIterations + 1; searchIteration++) {
-								int effectiveMatchLimit = getEffectiveMatchLimit(searchIteration);
-
-								searchResults = searchPhrase(searchString, field, effectiveMatchLimit);
-
-								if ( searchResults.totalHits.value == 0 )
-									break;
-
-								excerptsQueue = new PriorityQueue<>(effectiveMatchLimit, new ExcerptComparator());
-
-								// Configure term highlighting in results
-								UnifiedHighlighter highlighter = new UnifiedHighlighter(searcher, analyzer);
-								highlighter.setMaxLength(Integer.MAX_VALUE - 1);
-
-								NaturalBreakIterator lengthBreakIterator = new NaturalBreakIterator(highlightMin, highlightMax, searchString.length());
-								highlighter.setHandleMultiTermQuery(true);
-								highlighter.setHighlightPhrasesStrictly(true);
-								highlighter.setScorer(new UniquePassageScorer());
-								highlighter.setBreakIterator(() -> lengthBreakIterator);
-								highlighter.setFormatter(new DefaultPassageFormatter("", "", "...", false));
-
-								fragments = highlighter.highlight(field, query, searchResults, 1);
-
-								if (explainScoring) {
-									for (int z = 0; z < searchResults.scoreDocs.length; z++) {
-										scoringExplanation.append("Match #" + String.valueOf(z) + lnSeperator);
-										scoringExplanation.append(searcher.explain(query, searchResults.scoreDocs[z].doc));
-									}
-								}
-
-								for (; i < searchResults.scoreDocs.length; i++) {
-									Excerpt fragment = new Excerpt(fragments[i]);
-
-									
-									// Skip this match if it doesn't meet our length requirements
-									/*
-									if (fragment.length() < highlightMin || fragment.length() > highlightMax) {
-										if (explainScoring) {
-											scoringExplanation.append("Skipping match #");
-											scoringExplanation.append(String.valueOf(i)); 
-											scoringExplanation.append(" because it doesn't meet excerpt length limits");
-											scoringExplanation.append(lnSeperator);
-										}
-										continue;
-									}*/
-
-									/*
-									if ( Character.isLowerCase(fragment.charAt(0)) ) {
-										if (explainScoring) {
-											scoringExplanation.append("Skipping match #");
-											scoringExplanation.append(String.valueOf(i)); 
-											scoringExplanation.append(" because the first character is lower case");
-											scoringExplanation.append(lnSeperator);
-										}
-										continue;
-									}*/
-
-									/*
-									if (! excludedWords.phraseMatch(searchString) && excludedWords.phraseMatch(fragment.toString())) {
-										if (explainScoring) {
-											scoringExplanation.append("Skipping match #");
-											scoringExplanation.append(String.valueOf(i)); 
-											scoringExplanation.append(" because it contains an excluded word");
-											scoringExplanation.append(lnSeperator);
-										}
-										continue;
-									}*/
-
-									Document doc = searcher.doc(searchResults.scoreDocs[i].doc);
-									fragment.setDocumentTitle(doc.get("title"));
-									fragment.setDocId(doc.getField("docId").numericValue().doubleValue());
-
-									// Score the excerpt and add it to the queue
-									// Skip the excerpt of the score function returns false
-									if (excerptScorer.score(fragment, searchString))
-										excerptsQueue.offer(fragment);
-								}
-								
-								if (excerptsQueue.size() >= matchLimit || searchResults.totalHits.value < matchLimit)
-									break searchIterLoop;
-								
-								if (explainScoring) {
-									scoringExplanation.append("Expanding search limit because we exhausted the current top matches.");
-									scoringExplanation.append(lnSeperator);
-									scoringExplanation.append("New match limit is: ");
-									scoringExplanation.append(String.valueOf(getEffectiveMatchLimit(searchIteration + 1)));
-									scoringExplanation.append(lnSeperator);
-								}
-							}
-
-							int resultCount = 0;
-							while(! excerptsQueue.isEmpty()) {
-								Excerpt excerpt = excerptsQueue.remove();
-								
-								double docCount = SearchDocumentMatches.getDocMatchCount(excerpt.getDocId());
-
-								if (docCount > sourceLimit) {
-									if (explainScoring) {
-										scoringExplanation.append("Skipping match ");
-										// scoringExplanation.append(String.valueOf(i));
-										scoringExplanation.append(" because the source has been used too many times");
-										scoringExplanation.append(lnSeperator);
-									}
-									continue;
-								}
-
-								SearchDocumentMatches.incrementDocMatchCount(excerpt.getDocId());
-
-								bufferedWriter.write(searchString + "\t" + excerpt.replaceAll("[\\t\\r\\n]",  " ") +
-									"\t" + excerpt.getDocumentTitle().replaceAll("[\\t\\r\\n]", " ") + lnSeperator);
-								
-								if (++resultCount >= resultLimit)
-									break;
-							}
-						} catch ( IOException e ) {
-							// Something is wrong with reading the index
-							return;
+							// Terms without results are handed over too so ordered output can move past them
+							resultWriter.write(termSequence, results);
+						} catch (IOException e) {
+							searchFailure.compareAndSet(null, e);
+						} catch (InterruptedException e) {
+							// The searches were cancelled
+						} finally {
+							if (limiter == null)
+								pendingSearches.release();
+							else
+								limiter.release(startCpuNanos);
 						}
+					});
+				}
+			}
+
+			// Wait for the searches in flight to complete
+			threadPool.shutdown();
+			threadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} finally {
+			// Cancel the queued searches if reading the terms failed or the thread was interrupted
+			threadPool.shutdownNow();
+			if (segmentPool != null) {
+				segmentPool.shutdownNow();
+				parallelSearcher = null;
+			}
+			resultWriter.close();
+		}
 
-						System.out.print("Searching for: " + searchString + lnSeperator +
-								"Total Results: " + searchResults.totalHits + lnSeperator +
-								scoringExplanation + lnSeperator);
+		if (searchFailure.get() != null)
+			throw new IOException("Unable to search for the terms", searchFailure.get());
+
+		if (searchLimiter != null) {
+			System.out.printf("Elastic search ran up to %d terms at once" + System.lineSeparator(), searchLimiter.getPeakLimit());
+		}
+		if (segmentThreads > 0) {
+			System.out.printf("Searched %d terms across the segments in parallel" + System.lineSeparator(), parallelSearches.sum());
+		}
+		if (progressiveSearch) {
+			System.out.printf("Progressive search highlighted %d of %d matches (%d highlights saved)" + System.lineSeparator(),
+					progressiveHighlights.sum(), progressiveMatches.sum(), progressiveMatches.sum() - progressiveHighlights.sum());
+		}
+	}
+
+	/**
+	 * Search for a term/phrase and format its top excerpts
+	 *
+	 * @param searchString Term or phrase to search for
+	 * @param field Name of the field to search
+	 * @return The result lines of the term
+	 */
+	private String searchTerm(String searchString, String field) throws IOException {
+		// Use the correct line separator based on the operating system
+		String lnSeperator = System.lineSeparator();
+		StringBuilder output = new StringBuilder();
+
+		Query query = getQuery(searchString, field);
+		StringBuilder scoringExplanation = new StringBuilder();
+		IndexSearcher termSearcher = selectSearcher(query);
+
+		TopDocs searchResults = null;
+		String[] fragments;
+		// Reuse the highlighting components of this thread
+		HighlightContext highlightContext = highlightContexts.get();
+		highlightContext.reset(searchString);
+		PriorityQueue<Excerpt> excerptsQueue = highlightContext.excerptsQueue;
+		
+		// Every expansion collects the matches that follow the last match of the previous iterations
+		ScoreDoc lastMatch = null;
+		int collectedMatches = 0;
+		int highlightedMatches = 0;
+		// Excerpts can not score lower than the characters of the term
+		int minimumScore = progressiveSearch ? excerptScorer.getMinimumScore(searchString) : Integer.MIN_VALUE;
+		boolean resultsKnown = false;
+		for (int searchIteration = 1; searchIteration <= expandIterations + 1; searchIteration++) {
+			int effectiveMatchLimit = getEffectiveMatchLimit(searchIteration);
+			int pageSize = effectiveMatchLimit - collectedMatches;
+			if (pageSize <= 0)
+				break;
+
+			TopDocs page = searchPhraseAfter(termSearcher, query, lastMatch, pageSize);
+			if (searchResults == null)
+				searchResults = page;
+
+			if (page.scoreDocs.length == 0)
+				break;
+			lastMatch = page.scoreDocs[page.scoreDocs.length - 1];
+			collectedMatches += page.scoreDocs.length;
+
+			// Progressive searches highlight the matches in batches until the top results are known
+			int batchSize = progressiveSearch ? Math.max(1, resultLimit) : page.scoreDocs.length;
+			for (int batchStart = 0; batchStart < page.scoreDocs.length && !resultsKnown; batchStart += batchSize) {
+				TopDocs batch = page;
+				if (batchSize < page.scoreDocs.length)
+					batch = new TopDocs(page.totalHits, Arrays.copyOfRange(page.scoreDocs, batchStart,
+							Math.min(page.scoreDocs.length, batchStart + batchSize)));
+
+				// Only the new matches are highlighted and scored
+				fragments = highlightContext.highlighter.highlight(field, query, batch, 1);
+				highlightedMatches += batch.scoreDocs.length;
+
+				if (explainScoring) {
+					for (int z = 0; z < batch.scoreDocs.length; z++) {
+						scoringExplanation.append("Match #" + String.valueOf(collectedMatches - page.scoreDocs.length + batchStart + z) + lnSeperator);
+						scoringExplanation.append(searcher.explain(query, batch.scoreDocs[z].doc));
 					}
 				}
 
-				threadPool.execute(new subSearch(phrase));
+				for (int i = 0; i < batch.scoreDocs.length; i++) {
+					Excerpt fragment = new Excerpt(fragments[i]);
+
 				
+					// Skip this match if it doesn't meet our length requirements
+					/*
+					if (fragment.length() < highlightMin || fragment.length() > highlightMax) {
+						if (explainScoring) {
+							scoringExplanation.append("Skipping match #");
+							scoringExplanation.append(String.valueOf(i)); 
+							scoringExplanation.append(" because it doesn't meet excerpt length limits");
+							scoringExplanation.append(lnSeperator);
+						}
+						continue;
+					}*/
+
+					/*
+					if ( Character.isLowerCase(fragment.charAt(0)) ) {
+						if (explainScoring) {
+							scoringExplanation.append("Skipping match #");
+							scoringExplanation.append(String.valueOf(i)); 
+							scoringExplanation.append(" because the first character is lower case");
+							scoringExplanation.append(lnSeperator);
+						}
+						continue;
+					}*/
+
+					/*
+					if (! excludedWords.phraseMatch(searchString) && excludedWords.phraseMatch(fragment.toString())) {
+						if (explainScoring) {
+							scoringExplanation.append("Skipping match #");
+							scoringExplanation.append(String.valueOf(i)); 
+							scoringExplanation.append(" because it contains an excluded word");
+							scoringExplanation.append(lnSeperator);
+						}
+						continue;
+					}*/
+
+					// Score the excerpt and add it to the queue
+					// Skip the excerpt of the score function returns false
+					if (excerptScorer.score(fragment, searchString)) {
+						// The title is only read once the excerpt is written
+						resolveDocument(fragment, batch.scoreDocs[i].doc);
+						excerptsQueue.offer(fragment);
+					}
+				}
+
+				resultsKnown = progressiveSearch && hasTopResults(excerptsQueue, minimumScore);
+			}
+
+			if (resultsKnown && explainScoring) {
+				scoringExplanation.append("Stopping after highlighting " + highlightedMatches + " of " + collectedMatches
+						+ " matches because no other match can rank before the top excerpts.");
+				scoringExplanation.append(lnSeperator);
+			}
+
+			// Stop once enough excerpts were accepted or every match was collected
+			if (resultsKnown || excerptsQueue.size() >= matchLimit || page.scoreDocs.length < pageSize)
+				break;
+			
+			if (explainScoring) {
+				scoringExplanation.append("Expanding search limit because we exhausted the current top matches.");
+				scoringExplanation.append(lnSeperator);
+				scoringExplanation.append("New match limit is: ");
+				scoringExplanation.append(String.valueOf(getEffectiveMatchLimit(searchIteration + 1)));
+				scoringExplanation.append(lnSeperator);
 			}
 		}
 
-		// Wait for all threads to terminate
-		threadPool.shutdown();
-		while (!threadPool.isTerminated()) {}
-		
-		bufferedWriter.close();
+		progressiveMatches.add(collectedMatches);
+		progressiveHighlights.add(highlightedMatches);
+
+		int resultCount = 0;
+		while(! excerptsQueue.isEmpty()) {
+			Excerpt excerpt = excerptsQueue.remove();
+			
+			// The result is counted against the source limit as it is accepted so concurrent terms cannot exceed it
+			boolean counted = SearchDocumentMatches.tryIncrementDocMatchCount(excerpt.getDocId(), sourceLimit);
+
+			// Credit a title sharing the content that is still below the source limit
+			if (!counted && excerpt.getContentId() >= 0)
+				counted = creditAlias(excerpt);
+
+			if (!counted) {
+				if (explainScoring) {
+					scoringExplanation.append("Skipping match ");
+					// scoringExplanation.append(String.valueOf(i));
+					scoringExplanation.append(" because the source has been used too many times");
+					scoringExplanation.append(lnSeperator);
+				}
+				continue;
+			}
+
+			if (excerpt.getDocumentTitle() == null)
+				excerpt.setDocumentTitle(resolveTitle(excerpt.getDoc()));
+
+			output.append(searchString).append("\t").append(excerpt.replaceAll("[\\t\\r\\n]",  " "))
+				.append("\t").append(excerpt.getDocumentTitle().replaceAll("[\\t\\r\\n]", " ")).append(lnSeperator);
+			
+			if (++resultCount >= resultLimit)
+				break;
+		}
+
+		System.out.print("Searching for: " + searchString + lnSeperator +
+				"Total Results: " + searchResults.totalHits + lnSeperator +
+				scoringExplanation + lnSeperator);
+		return output.toString();
+	}
+
+	/**
+	 * Determines whether the queue holds enough excerpts with the lowest score possible to fill the result
+	 * limit.  An excerpt that is not highlighted yet can only tie with them so the top results are known.
+	 * 
+	 * @param excerptsQueue Excerpts accepted so far
+	 * @param minimumScore Lowest score that an excerpt of the term can be given
+	 */
+	private boolean hasTopResults(PriorityQueue<Excerpt> excerptsQueue, int minimumScore) {
+		if (minimumScore == Integer.MIN_VALUE)
+			return false;
+
+		// Excerpts of documents that reach the source limit are skipped when the results are written
+		HashMap<Double, Integer> documentResults = new HashMap<>();
+		int results = 0;
+		for (Excerpt excerpt : excerptsQueue) {
+			if (excerpt.getScore() > minimumScore)
+				continue;
+			int previousResults = documentResults.merge(excerpt.getDocId(), 1, Integer::sum) - 1;
+			if (SearchDocumentMatches.getDocMatchCount(excerpt.getDocId()) + previousResults <= sourceLimit
+					&& ++results >= resultLimit)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Highlighting components of a search thread that are reset for every term it searches
+	 */
+	private class HighlightContext {
+		private final UnifiedHighlighter highlighter;
+		private final NaturalBreakIterator breakIterator;
+		private final PriorityQueue<Excerpt> excerptsQueue = new PriorityQueue<>(matchLimit, new ExcerptComparator());
+
+		HighlightContext(String field) {
+			breakIterator = new NaturalBreakIterator(highlightMin, highlightMax);
+
+			// Configure term highlighting in results
+			highlighter = newHighlighter(field);
+			highlighter.setMaxLength(Integer.MAX_VALUE - 1);
+			highlighter.setHandleMultiTermQuery(true);
+			highlighter.setHighlightPhrasesStrictly(true);
+			highlighter.setScorer(new UniquePassageScorer());
+			highlighter.setBreakIterator(() -> breakIterator);
+			highlighter.setFormatter(new DefaultPassageFormatter("", "", "...", false));
+		}
+
+		/*
+		 * Prepares the components to highlight the excerpts of a term
+		 */
+		void reset(String searchString) {
+			breakIterator.setQueryOffset(searchString.length());
+			excerptsQueue.clear();
+		}
+	}
+
+	/**
+	 * Attributes an excerpt to an alias of its document whose title has not reached the source limit
+	 * and counts the result against the alias
+	 * 
+	 * @param excerpt Excerpt of the document holding the content
+	 * @return True if the excerpt was attributed to an alias
+	 */
+	private boolean creditAlias(Excerpt excerpt) throws IOException {
+		TopDocs aliases = searcher.search(LongPoint.newExactQuery(IndexCreator.CONTENT_ID_FIELD, excerpt.getContentId()), MAX_ALIASES);
+		for (ScoreDoc alias : aliases.scoreDocs) {
+			double docId = readDocId(alias.doc);
+			if (docId != excerpt.getDocId() && SearchDocumentMatches.tryIncrementDocMatchCount(docId, sourceLimit)) {
+				excerpt.setDocumentTitle(null);
+				excerpt.setDoc(alias.doc);
+				excerpt.setDocId(docId);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the docId and content ID of a match from doc values instead of loading its stored document
+	 * 
+	 * @param excerpt Excerpt of the match
+	 * @param doc Lucene document number of the match
+	 */
+	private void resolveDocument(Excerpt excerpt, int doc) throws IOException {
+		excerpt.setDoc(doc);
+		excerpt.setDocId(readDocId(doc));
+		if (!dedupContent)
+			return;
+
+		LeafReaderContext leaf = reader.leaves().get(ReaderUtil.subIndex(doc, reader.leaves()));
+		NumericDocValues contentIds = leaf.reader().getNumericDocValues(IndexCreator.CONTENT_ID_FIELD);
+		if (contentIds != null && contentIds.advanceExact(doc - leaf.docBase)) {
+			excerpt.setContentId(contentIds.longValue());
+			return;
+		}
+
+		// Documents indexed before content IDs had doc values only store them
+		IndexableField contentId = searcher.doc(doc, CONTENT_ID_FIELDS).getField(IndexCreator.CONTENT_ID_FIELD);
+		if (contentId != null)
+			excerpt.setContentId(contentId.numericValue().longValue());
+	}
+
+	/**
+	 * @param doc Lucene document number of a match
+	 * @return The docId of the match from the doc values it is scored with
+	 */
+	private double readDocId(int doc) throws IOException {
+		LeafReaderContext leaf = reader.leaves().get(ReaderUtil.subIndex(doc, reader.leaves()));
+		NumericDocValues docIds = DocValues.getNumeric(leaf.reader(), "docid");
+		if (!docIds.advanceExact(doc - leaf.docBase))
+			throw new IOException("The document " + doc + " has no docId");
+		return Double.longBitsToDouble(docIds.longValue());
+	}
+
+	/**
+	 * @param doc Lucene document number of a match
+	 * @return The title of the match from its doc values or, for documents indexed without them, its stored fields
+	 */
+	private String resolveTitle(int doc) throws IOException {
+		LeafReaderContext leaf = reader.leaves().get(ReaderUtil.subIndex(doc, reader.leaves()));
+		SortedDocValues titles = leaf.reader().getSortedDocValues("title");
+		if (titles != null && titles.advanceExact(doc - leaf.docBase))
+			return titles.binaryValue().utf8ToString();
+
+		// Documents indexed before titles had doc values only store them
+		return searcher.doc(doc, TITLE_FIELDS).get("title");
+	}
+
+	/**
+	 * Creates a highlighter that reads offsets from the source matching the index profile
+	 * 
+	 * @param field Name of the field to highlight
+	 */
+	private UnifiedHighlighter newHighlighter(String field) {
+		if (indexProfile == null)
+			return new UnifiedHighlighter(searcher, analyzer);
+
+		final OffsetSource offsetSource = indexProfile.getOffsetSource();
+		return new UnifiedHighlighter(searcher, analyzer) {
+			@Override
+			protected OffsetSource getOffsetSource(String highlightField) {
+				if (highlightField.equals(field))
+					return offsetSource;
+				return super.getOffsetSource(highlightField);
+			}
+		};
 	}
 
 	/**
@@ -547,7 +1120,137 @@ public class SearchIndex {
 	 * @return TopDocs results
 	 */
 	public TopDocs searchPhrase(Query query, int maxResults) throws IOException {
-		return searcher.search(query, maxResults);
+		if (scoreSort == null)
+			return searcher.search(query, maxResults);
+
+		// Matches are collected in index order so every segment stops after its top matches
+		TopFieldCollector collector = TopFieldCollector.create(scoreSort, maxResults, maxResults);
+		searcher.search(query, collector);
+		return collector.topDocs();
+	}
+
+	/**
+	 * Search for the matches of a phrase or term that rank after a previous match
+	 *
+	 * @param phrase Phrase or term to search for
+	 * @param field Name of the field to search
+	 * @param after Last match of the previous search or null to start from the top match
+	 * @param maxResults Maximum number of results to return
+	 *
+	 * @return TopDocs results
+	 */
+	public TopDocs searchPhraseAfter(String phrase, String field, ScoreDoc after, int maxResults) throws IOException {
+		return searchPhraseAfter(getQuery(phrase, field), after, maxResults);
+	}
+
+	/**
+	 * Search for the matches of a query that rank after a previous match
+	 *
+	 * @param query Query to search the index with
+	 * @param after Last match of the previous search or null to start from the top match
+	 * @param maxResults Maximum number of results to return
+	 *
+	 * @return TopDocs results
+	 */
+	public TopDocs searchPhraseAfter(Query query, ScoreDoc after, int maxResults) throws IOException {
+		if (after == null)
+			return searchPhrase(query, maxResults);
+		if (scoreSort == null)
+			return searcher.searchAfter(after, query, maxResults);
+
+		TopFieldCollector collector = TopFieldCollector.create(scoreSort, maxResults, (FieldDoc) after, maxResults);
+		searcher.search(query, collector);
+		return collector.topDocs();
+	}
+
+	private TopDocs searchPhraseAfter(IndexSearcher termSearcher, Query query, ScoreDoc after, int maxResults) throws IOException {
+		if (termSearcher == searcher)
+			return searchPhraseAfter(query, after, maxResults);
+
+		// Every slice collects its own top matches which are merged in the order of a search on one thread
+		return termSearcher.search(query, new CollectorManager<TopDocsCollector<?>, TopDocs>() {
+			@Override
+			public TopDocsCollector<?> newCollector() {
+				if (scoreSort == null)
+					return TopScoreDocCollector.create(maxResults, after, maxResults);
+				return TopFieldCollector.create(scoreSort, maxResults, (FieldDoc) after, maxResults);
+			}
+
+			@Override
+			public TopDocs reduce(Collection<TopDocsCollector<?>> collectors) {
+				return mergeSlices(collectors, maxResults);
+			}
+		});
+	}
+
+	/*
+	 * Merges the top matches of the slices.  Lucene breaks ties by the slice of a match so the
+	 * matches are tagged with their docId, like a search on one thread breaks ties.
+	 */
+	private TopDocs mergeSlices(Collection<TopDocsCollector<?>> collectors, int maxResults) {
+		TopDocs[] sliceResults = scoreSort == null ? new TopDocs[collectors.size()] : new TopFieldDocs[collectors.size()];
+		int i = 0;
+		for (TopDocsCollector<?> collector : collectors) {
+			sliceResults[i] = collector.topDocs();
+			for (ScoreDoc match : sliceResults[i].scoreDocs)
+				match.shardIndex = match.doc;
+			i++;
+		}
+
+		TopDocs merged = scoreSort == null ? TopDocs.merge(0, maxResults, sliceResults, false)
+				: TopDocs.merge(scoreSort, 0, maxResults, (TopFieldDocs[]) sliceResults, false);
+		for (ScoreDoc match : merged.scoreDocs)
+			match.shardIndex = -1;
+		return merged;
+	}
+
+	/**
+	 * Chooses the searcher of a term.  A phrase matches at most the documents of its rarest word so
+	 * only terms whose rarest word is frequent are worth searching across the segments in parallel.
+	 * The words are the terms of the query so they are looked up exactly as the phrase searches them.
+	 * 
+	 * @param query Query of the term or phrase built by getQuery
+	 */
+	private IndexSearcher selectSearcher(Query query) throws IOException {
+		IndexSearcher termSearcher = parallelSearcher;
+		if (termSearcher == null)
+			return searcher;
+
+		Set<Term> terms = new HashSet<>();
+		query.visit(QueryVisitor.termCollector(terms));
+		long rarestDocFreq = Long.MAX_VALUE;
+		for (Term term : terms)
+			rarestDocFreq = Math.min(rarestDocFreq, reader.docFreq(term));
+		if (rarestDocFreq == Long.MAX_VALUE || rarestDocFreq < parallelMinDocFreq)
+			return searcher;
+
+		parallelSearches.increment();
+		return termSearcher;
+	}
+
+	/*
+	 * Groups the largest segments first into slices of at most maxDocs documents and maxSegments segments.
+	 * A segment larger than maxDocs is a slice of its own.
+	 */
+	private static LeafSlice[] groupSegments(List<LeafReaderContext> leaves, int maxDocs, int maxSegments) {
+		List<LeafReaderContext> sortedLeaves = new ArrayList<>(leaves);
+		sortedLeaves.sort((leaf1, leaf2) -> Integer.compare(leaf2.reader().maxDoc(), leaf1.reader().maxDoc()));
+
+		List<LeafSlice> slices = new ArrayList<>();
+		List<LeafReaderContext> slice = new ArrayList<>();
+		long sliceDocs = 0;
+		for (LeafReaderContext leaf : sortedLeaves) {
+			if (!slice.isEmpty() && (sliceDocs + leaf.reader().maxDoc() > maxDocs || slice.size() >= maxSegments)) {
+				slices.add(new LeafSlice(slice.toArray(new LeafReaderContext[0])));
+				slice.clear();
+				sliceDocs = 0;
+			}
+			slice.add(leaf);
+			sliceDocs += leaf.reader().maxDoc();
+		}
+		if (!slice.isEmpty())
+			slices.add(new LeafSlice(slice.toArray(new LeafReaderContext[0])));
+		return slices.toArray(new LeafSlice[0]);
 	}
 
 	private Query getQuery(String phrase, String field) {
@@ -0,0 +1,155 @@
+package com.iyadk.termsearch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the terms searched at once so that the searches keep the cores busy whether they are
+ * waiting on the index or not.
+ *
+ * The CPU time of the searches is summed over a window of searches and divided by the wall time of
+ * the window times the cores.  Searches waiting on page faults of the index leave the cores idle so
+ * more searches are let through, up to the limit that would bring the cores to the target
+ * utilisation.  Once the cores are saturated, whether the searches also wait for a core or not,
+ * the limit shrinks back toward the number of cores.  Between both thresholds the limit is kept,
+ * and it only moves halfway to a new target so a few slow terms do not swing it.
+ *
+ * @author Iyad Kandalaft
+ */
+public class SearchLimiter {
+	// Searches measured before the limit is recomputed
+	private static final int WINDOW_SEARCHES = 32;
+	// Utilisation of the cores that the limit aims for and the thresholds beyond which it moves
+	private static final double TARGET_UTILISATION = 0.85;
+	private static final double GROW_UTILISATION = 0.75;
+	private static final double SHRINK_UTILISATION = 0.95;
+
+	private final ResizableSemaphore permits;
+	private final int cores;
+	private final int maxSearches;
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+	private final boolean cpuTimeSupported;
+
+	private int limit;
+	private int peakLimit;
+	private int windowSearches;
+	private long windowCpuNanos;
+	private long windowStartNanos;
+
+	/**
+	 * @param cores Searches let through when every search keeps its core busy
+	 * @param maxSearches Most searches let through however long they wait
+	 */
+	public SearchLimiter(int cores, int maxSearches) {
+		this(cores, maxSearches, System.nanoTime());
+	}
+
+	/*
+	 * @param startNanos Time at which the first window of searches starts
+	 */
+	SearchLimiter(int cores, int maxSearches, long startNanos) {
+		this.windowStartNanos = startNanos;
+		this.cores = Math.max(1, cores);
+		this.maxSearches = Math.max(this.cores, maxSearches);
+		this.limit = this.cores;
+		this.peakLimit = this.cores;
+		this.permits = new ResizableSemaphore(this.cores);
+		// Without the CPU time of the threads the limit stays at the number of cores
+		this.cpuTimeSupported = threadBean.isCurrentThreadCpuTimeSupported();
+		if (cpuTimeSupported && !threadBean.isThreadCpuTimeEnabled())
+			threadBean.setThreadCpuTimeEnabled(true);
+	}
+
+	/**
+	 * Waits until another search can start
+	 */
+	public void acquire() throws InterruptedException {
+		permits.acquire();
+	}
+
+	/**
+	 * @return The CPU time of the current thread to pass to release
+	 */
+	public long startSearch() {
+		return cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * Ends a search started on the current thread and measures it
+	 *
+	 * @param startCpuNanos CPU time returned by startSearch
+	 */
+	public void release(long startCpuNanos) {
+		if (cpuTimeSupported)
+			record(threadBean.getCurrentThreadCpuTime() - startCpuNanos, System.nanoTime());
+		permits.release();
+	}
+
+	/*
+	 * Adds a search to the window and recomputes the limit once the window is complete
+	 *
+	 * @param cpuNanos CPU time of the search
+	 * @param endNanos Time at which the search ended
+	 */
+	synchronized void record(long cpuNanos, long endNanos) {
+		windowCpuNanos += cpuNanos;
+		long wallNanos = endNanos - windowStartNanos;
+		if (++windowSearches < WINDOW_SEARCHES || wallNanos <= 0)
+			return;
+
+		double utilisation = (double) windowCpuNanos / ((double) wallNanos * cores);
+		if (utilisation < GROW_UTILISATION || utilisation > SHRINK_UTILISATION) {
+			// Searches that would bring the cores to the target utilisation
+			double scale = TARGET_UTILISATION / Math.max(utilisation, 0.01);
+			// Saturated cores always give up at least one search
+			int target = utilisation < GROW_UTILISATION ? (int) Math.ceil(limit * scale) : Math.min(limit - 1, (int) (limit * scale));
+			target = Math.min(maxSearches, Math.max(cores, target));
+			int step = (target - limit) / 2;
+			setLimit(limit + (step == 0 ? target - limit : step));
+		}
+
+		windowSearches = 0;
+		windowCpuNanos = 0;
+		windowStartNanos = endNanos;
+	}
+
+	private void setLimit(int nextLimit) {
+		if (nextLimit > limit)
+			permits.release(nextLimit - limit);
+		else if (nextLimit < limit)
+			permits.reducePermits(limit - nextLimit);
+		limit = nextLimit;
+		peakLimit = Math.max(peakLimit, limit);
+	}
+
+	/**
+	 * @return Searches currently let through at once
+	 */
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return Most searches let through at once since the limiter was created
+	 */
+	public synchronized int getPeakLimit() {
+		return peakLimit;
+	}
+
+	/*
+	 * Exposes the removal of permits that are in use so the limit can shrink without waiting
+	 */
+	private static class ResizableSemaphore extends Semaphore {
+		private static final long serialVersionUID = 1L;
+
+		ResizableSemaphore(int permits) {
+			super(permits);
+		}
+
+		@Override
+		protected void reducePermits(int reduction) {
+			super.reducePermits(reduction);
+		}
+	}
+}
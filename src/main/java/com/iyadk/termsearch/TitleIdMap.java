@@ -0,0 +1,281 @@
+package com.iyadk.termsearch;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps document titles to the docId of their first occurrence using a compact, primitive
+ * open addressing hash table instead of holding every title as a String.
+ *
+ * Titles are identified by two independent 64 bit hashes, the second seeded with the length of
+ * the title, so every title costs 24 bytes regardless of its length.  Titles whose first hash
+ * collides are told apart by the second one and get their own entry.  Two distinct titles are only
+ * confused if both hashes collide, which is negligible (about 2^-128 per pair of titles).
+ *
+ * The table is split into stripes that are locked independently so that indexing threads rarely
+ * contend.  Stripes are kept on the heap until the heap limit is reached and are then kept in
+ * memory mapped temporary files that the operating system can page out.
+ *
+ * @author Iyad Kandalaft
+ */
+public class TitleIdMap {
+	private static final int STRIPE_BITS = 6;
+	private static final int INITIAL_CAPACITY = 1024;
+	// A stripe's table of key and value pairs must fit in a single mapping
+	private static final int MAX_CAPACITY = 1 << 26;
+	// Hash of the empty slots
+	private static final long EMPTY = 0;
+	// Every slot holds the hash, the check hash and the docId of a title
+	private static final int SLOT_LONGS = 3;
+
+	private final Stripe[] stripes;
+	private final AtomicLong heapBytes;
+	private final AtomicLong offHeapBytes;
+	private volatile long maxHeapBytes;
+
+	/**
+	 * @param maxHeapBytes Number of bytes of heap that the table can use before it is memory mapped
+	 */
+	public TitleIdMap(long maxHeapBytes) {
+		this.maxHeapBytes = maxHeapBytes;
+		this.heapBytes = new AtomicLong();
+		this.offHeapBytes = new AtomicLong();
+		this.stripes = new Stripe[1 << STRIPE_BITS];
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new Stripe();
+	}
+
+	public long getMaxHeapBytes() {
+		return maxHeapBytes;
+	}
+
+	/**
+	 * @param maxHeapBytes Number of bytes of heap that the table can use before it is memory mapped
+	 */
+	public void setMaxHeapBytes(long maxHeapBytes) {
+		this.maxHeapBytes = maxHeapBytes;
+	}
+
+	/**
+	 * Records the docId of a title unless the title already has one
+	 *
+	 * @param title The document title
+	 * @param id The docId to assign to the title
+	 * @return The docId of the title
+	 */
+	public long putIfAbsent(String title, long id) {
+		return putIfAbsent(hash(title), checkHash(title), id);
+	}
+
+	/*
+	 * Records the docId of the title with the hashes unless it already has one
+	 */
+	long putIfAbsent(long hash, long check, long id) {
+		return stripe(hash).put(hash, check, id, false);
+	}
+
+	/**
+	 * Records the docId of a title or keeps the existing one if it is smaller
+	 *
+	 * @param title The document title
+	 * @param id The docId to assign to the title
+	 * @return The docId of the title
+	 */
+	public long putMin(String title, long id) {
+		long hash = hash(title);
+		return stripe(hash).put(hash, checkHash(title), id, true);
+	}
+
+	/**
+	 * @return The number of titles in the table
+	 */
+	public long size() {
+		long size = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return The number of bytes of heap used by the table
+	 */
+	public long getHeapBytes() {
+		return heapBytes.get();
+	}
+
+	/**
+	 * @return The number of bytes of the table that are memory mapped
+	 */
+	public long getOffHeapBytes() {
+		return offHeapBytes.get();
+	}
+
+	/**
+	 * Removes every title and releases the memory held by the table
+	 */
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.release(stripe.capacity, stripe.mapped);
+				stripe.allocate(INITIAL_CAPACITY);
+				stripe.size = 0;
+			}
+		}
+	}
+
+	private Stripe stripe(long hash) {
+		return stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+	}
+
+	/*
+	 * 64 bit FNV-1a hash of the title characters followed by the MurmurHash3 finalizer
+	 */
+	static long hash(String title) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < title.length(); i++) {
+			hash ^= title.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash == EMPTY ? 1 : hash;
+	}
+
+	/*
+	 * Polynomial hash of the title characters seeded with its length followed by a different finalizer,
+	 * so that it is independent of the first hash and titles of different lengths rarely share it
+	 */
+	static long checkHash(String title) {
+		long hash = 0x9e3779b97f4a7c15L * (title.length() + 1);
+		for (int i = 0; i < title.length(); i++)
+			hash = (hash + title.charAt(i)) * 0xc2b2ae3d27d4eb4fL;
+		hash ^= hash >>> 30;
+		hash *= 0xbf58476d1ce4e5b9L;
+		hash ^= hash >>> 27;
+		hash *= 0x94d049bb133111ebL;
+		hash ^= hash >>> 31;
+		return hash;
+	}
+
+	/**
+	 * An independently locked hash table of the hash, check hash and docId of every title
+	 */
+	private class Stripe {
+		private LongBuffer table;
+		private boolean mapped;
+		private int capacity;
+		private int size;
+
+		Stripe() {
+			allocate(INITIAL_CAPACITY);
+		}
+
+		synchronized long put(long hash, long check, long id, boolean keepMin) {
+			int mask = capacity - 1;
+			int slot = (int) hash & mask;
+			while (true) {
+				long key = table.get(slot * SLOT_LONGS);
+				if (key == EMPTY)
+					break;
+				// A title whose first hash collides with another one is probed past it
+				if (key == hash && table.get(slot * SLOT_LONGS + 1) == check) {
+					long existingId = table.get(slot * SLOT_LONGS + 2);
+					if (keepMin && id < existingId) {
+						table.put(slot * SLOT_LONGS + 2, id);
+						return id;
+					}
+					return existingId;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			table.put(slot * SLOT_LONGS, hash);
+			table.put(slot * SLOT_LONGS + 1, check);
+			table.put(slot * SLOT_LONGS + 2, id);
+			if (++size > capacity / 4 * 3)
+				grow();
+			return id;
+		}
+
+		/*
+		 * Doubles the capacity and rehashes every title into the new table
+		 */
+		private void grow() {
+			if (capacity == MAX_CAPACITY)
+				throw new IllegalStateException("The title table exceeded " + (long) MAX_CAPACITY * stripes.length / 4 * 3 + " titles");
+
+			LongBuffer oldTable = table;
+			int oldCapacity = capacity;
+			boolean oldMapped = mapped;
+			allocate(oldCapacity * 2);
+			release(oldCapacity, oldMapped);
+
+			int mask = capacity - 1;
+			for (int i = 0; i < oldCapacity; i++) {
+				long key = oldTable.get(i * SLOT_LONGS);
+				if (key == EMPTY)
+					continue;
+				int slot = (int) key & mask;
+				while (table.get(slot * SLOT_LONGS) != EMPTY)
+					slot = (slot + 1) & mask;
+				table.put(slot * SLOT_LONGS, key);
+				table.put(slot * SLOT_LONGS + 1, oldTable.get(i * SLOT_LONGS + 1));
+				table.put(slot * SLOT_LONGS + 2, oldTable.get(i * SLOT_LONGS + 2));
+			}
+		}
+
+		/*
+		 * Allocates an empty table on the heap or memory maps it once the heap limit is reached
+		 */
+		private void allocate(int capacity) {
+			long bytes = (long) capacity * SLOT_LONGS * Long.BYTES;
+			this.capacity = capacity;
+
+			if (heapBytes.get() + bytes <= maxHeapBytes || capacity == INITIAL_CAPACITY) {
+				heapBytes.addAndGet(bytes);
+				table = LongBuffer.allocate(capacity * SLOT_LONGS);
+				mapped = false;
+				return;
+			}
+
+			// The file is removed once mapped and its space is reclaimed when the mapping is released
+			try {
+				Path tableFile = Files.createTempFile("term-search-titles", ".map");
+				try (RandomAccessFile file = new RandomAccessFile(tableFile.toFile(), "rw")) {
+					file.setLength(bytes);
+					table = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes).asLongBuffer();
+				} finally {
+					if (!tableFile.toFile().delete())
+						tableFile.toFile().deleteOnExit();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to memory map the title table", e);
+			}
+			offHeapBytes.addAndGet(bytes);
+			mapped = true;
+		}
+
+		/*
+		 * Stops accounting for a table that is no longer used
+		 */
+		private void release(int capacity, boolean mapped) {
+			long bytes = (long) capacity * SLOT_LONGS * Long.BYTES;
+			if (mapped)
+				offHeapBytes.addAndGet(-bytes);
+			else
+				heapBytes.addAndGet(-bytes);
+		}
+	}
+}
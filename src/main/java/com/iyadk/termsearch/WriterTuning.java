@@ -0,0 +1,166 @@
+package com.iyadk.termsearch;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriterConfig;
+
+/**
+ * Buffering and merging settings of the index writers.
+ *
+ * AUTO derives the settings from the maximum heap and the number of cores so that the same build
+ * flushes large segments on big machines without running out of memory on small ones.
+ * LUCENE keeps the Lucene defaults.  Any setting that is configured explicitly (non zero) is kept as is.
+ *
+ * @author Iyad Kandalaft
+ */
+public class WriterTuning {
+	public static enum Mode {
+		AUTO, LUCENE
+	}
+
+	// Share of the heap used by the writer buffers in AUTO mode since the title table uses another quarter
+	private static final double HEAP_SHARE = 0.25;
+	private static final double MIN_RAM_BUFFER_MB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+	private static final double MAX_RAM_BUFFER_MB = 8192;
+	// The largest hard limit that Lucene accepts
+	private static final int MAX_RAM_PER_THREAD_MB = IndexWriterConfig.DEFAULT_RAM_PER_THREAD_HARD_LIMIT_MB;
+
+	private Mode mode = Mode.AUTO;
+	private double ramBufferMB;
+	private int maxBufferedDocs;
+	private int ramPerThreadMB;
+	private int mergeThreads;
+	private int maxMerges;
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	public double getRamBufferMB() {
+		return ramBufferMB;
+	}
+
+	/**
+	 * @param ramBufferMB Megabytes buffered by each writer before flushing a segment (0 to tune)
+	 */
+	public void setRamBufferMB(double ramBufferMB) {
+		this.ramBufferMB = ramBufferMB;
+	}
+
+	public int getMaxBufferedDocs() {
+		return maxBufferedDocs;
+	}
+
+	/**
+	 * @param maxBufferedDocs Documents buffered by each writer before flushing a segment (0 to flush by RAM only)
+	 */
+	public void setMaxBufferedDocs(int maxBufferedDocs) {
+		this.maxBufferedDocs = maxBufferedDocs;
+	}
+
+	public int getRamPerThreadMB() {
+		return ramPerThreadMB;
+	}
+
+	/**
+	 * @param ramPerThreadMB Megabytes an indexing thread can buffer before its segment is forced to flush (0 to tune)
+	 */
+	public void setRamPerThreadMB(int ramPerThreadMB) {
+		this.ramPerThreadMB = ramPerThreadMB;
+	}
+
+	public int getMergeThreads() {
+		return mergeThreads;
+	}
+
+	/**
+	 * @param mergeThreads Concurrent merges of each writer (0 to tune)
+	 */
+	public void setMergeThreads(int mergeThreads) {
+		this.mergeThreads = mergeThreads;
+	}
+
+	public int getMaxMerges() {
+		return maxMerges;
+	}
+
+	/**
+	 * @param maxMerges Pending merges of each writer before indexing threads are stalled (0 to tune)
+	 */
+	public void setMaxMerges(int maxMerges) {
+		this.maxMerges = maxMerges;
+	}
+
+	/**
+	 * Resolves the settings that are not configured explicitly
+	 *
+	 * @param maxHeapBytes The maximum heap of the JVM
+	 * @param cores The number of available cores
+	 * @param writers The number of writers that share the heap and cores
+	 * @param indexingThreads The number of threads adding documents
+	 * @return The settings of each writer
+	 */
+	public WriterTuning resolve(long maxHeapBytes, int cores, int writers, int indexingThreads) {
+		WriterTuning resolved = new WriterTuning();
+		resolved.mode = mode;
+		resolved.ramBufferMB = ramBufferMB;
+		resolved.maxBufferedDocs = maxBufferedDocs;
+		resolved.ramPerThreadMB = ramPerThreadMB;
+		resolved.mergeThreads = mergeThreads;
+		resolved.maxMerges = maxMerges;
+
+		if (mode == Mode.LUCENE) {
+			if (resolved.ramBufferMB == 0)
+				resolved.ramBufferMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+			if (resolved.ramPerThreadMB == 0)
+				resolved.ramPerThreadMB = IndexWriterConfig.DEFAULT_RAM_PER_THREAD_HARD_LIMIT_MB;
+			return resolved;
+		}
+
+		writers = Math.max(1, writers);
+		if (resolved.ramBufferMB == 0) {
+			double heapMB = maxHeapBytes / 1048576.0;
+			resolved.ramBufferMB = Math.max(MIN_RAM_BUFFER_MB, Math.min(MAX_RAM_BUFFER_MB, heapMB * HEAP_SHARE) / writers);
+		}
+		if (resolved.ramPerThreadMB == 0) {
+			// A thread's segment never needs more than the whole buffer of its writer
+			resolved.ramPerThreadMB = (int) Math.max(1, Math.min(MAX_RAM_PER_THREAD_MB, resolved.ramBufferMB));
+		}
+		if (resolved.mergeThreads == 0) {
+			// Leave most of the cores to the indexing threads while the corpus is being read
+			int spareCores = Math.max(1, cores - Math.min(cores, indexingThreads) / 2);
+			resolved.mergeThreads = Math.max(1, Math.min(8, spareCores / writers));
+		}
+		if (resolved.maxMerges == 0) {
+			resolved.maxMerges = resolved.mergeThreads + 5;
+		}
+		return resolved;
+	}
+
+	/**
+	 * Applies the resolved settings to the configuration and merge scheduler of a writer
+	 */
+	public void apply(IndexWriterConfig writerConfig, ConcurrentMergeScheduler mergeScheduler) {
+		writerConfig.setRAMBufferSizeMB(ramBufferMB);
+		writerConfig.setMaxBufferedDocs(maxBufferedDocs == 0 ? IndexWriterConfig.DISABLE_AUTO_FLUSH : maxBufferedDocs);
+		writerConfig.setRAMPerThreadHardLimitMB(ramPerThreadMB);
+
+		if (mergeThreads > 0) {
+			mergeScheduler.setMaxMergesAndThreads(Math.max(maxMerges, mergeThreads), mergeThreads);
+		}
+		if (mode == Mode.AUTO) {
+			// Merges of a build should not be throttled to keep up with the indexing threads
+			mergeScheduler.disableAutoIOThrottle();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s tuning: RAM buffer %.0f MB, per thread limit %d MB, max buffered docs %s, merge threads %s, max merges %s",
+				mode, ramBufferMB, ramPerThreadMB, maxBufferedDocs == 0 ? "unlimited" : Integer.toString(maxBufferedDocs),
+				mergeThreads == 0 ? "auto" : Integer.toString(mergeThreads), maxMerges == 0 ? "auto" : Integer.toString(maxMerges));
+	}
+}
@@ -0,0 +1,92 @@
+package com.iyadk.termsearch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.iyadk.termsearch.ScoreOffsetRule.SearchTypeEnum;
+
+/**
+ * Compares applying the score offset rules one at a time with the compiled rule set
+ * on titles made of words of which only a few are matched by the rules.  A tenth of the rules
+ * are alternations of many names like the author lists of lookupOffset.txt.
+ *
+ * Usage: ScoreOffsetRuleSetBenchmark [rule count] [title count]
+ */
+public class ScoreOffsetRuleSetBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int ruleCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int titleCount = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+		Random random = new Random(42);
+		List<String> words = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder word = new StringBuilder();
+			int length = 4 + random.nextInt(8);
+			for (int j = 0; j < length; j++)
+				word.append((char) ('a' + random.nextInt(26)));
+			words.add(word.toString());
+		}
+
+		List<ScoreOffsetRule> rules = new ArrayList<>();
+		for (int i = 0; i < ruleCount; i++) {
+			String word = words.get(random.nextInt(words.size()));
+			double scoreAdjustment = random.nextInt(50) == 0 ? 0 : random.nextInt(5) - 2 + 0.5;
+			boolean stopAfter = random.nextInt(10) == 0;
+			int ruleType = random.nextInt(10);
+			if (ruleType < 6) {
+				rules.add(new ScoreOffsetRule(SearchTypeEnum.EXACT, word, scoreAdjustment, stopAfter));
+			} else if (ruleType == 6) {
+				// Alternations of 5 to 60 names, optionally wrapped in a group
+				StringBuilder alternation = new StringBuilder(word);
+				int names = 4 + random.nextInt(56);
+				for (int j = 0; j < names; j++)
+					alternation.append('|').append(words.get(random.nextInt(words.size())))
+							.append('_').append(words.get(random.nextInt(words.size())));
+				String regex = random.nextBoolean() ? alternation.toString() : "(" + alternation + ")";
+				rules.add(new ScoreOffsetRule(SearchTypeEnum.REGEX, regex, scoreAdjustment, stopAfter));
+			} else {
+				String[] regexes = { word + "_[0-9]+", "^" + word, word + "\\.txt", "(?i)" + word };
+				rules.add(new ScoreOffsetRule(SearchTypeEnum.REGEX, regexes[random.nextInt(regexes.length)], scoreAdjustment, stopAfter));
+			}
+		}
+
+		List<String> titles = new ArrayList<>();
+		for (int i = 0; i < titleCount; i++) {
+			StringBuilder title = new StringBuilder();
+			int length = 3 + random.nextInt(4);
+			for (int j = 0; j < length; j++)
+				title.append(words.get(random.nextInt(words.size()))).append('_');
+			titles.add(title.append(random.nextInt(10)).append(".txt").toString());
+		}
+		ScoreOffsetRuleSet ruleSet = new ScoreOffsetRuleSet(rules);
+
+		System.out.printf("%d rules, %d titles%n", ruleCount, titleCount);
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			double checksum = checksum(titles, title -> TestScoreOffsetRuleSet.applyEach(rules, title, 5));
+			long loopTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			double compiledChecksum = checksum(titles, title -> ruleSet.apply(title, 5));
+			long compiledTime = System.nanoTime() - start;
+
+			System.out.printf("Run %d: rule loop %d ms, compiled rules %d ms (checksums %.1f %.1f)%n", run,
+					loopTime / 1000000, compiledTime / 1000000, checksum, compiledChecksum);
+		}
+	}
+
+	/*
+	 * Sums the adjusted scores of the titles that are not dropped
+	 */
+	private static double checksum(List<String> titles, java.util.function.ToDoubleFunction<String> scorer) {
+		double checksum = 0;
+		for (String title : titles) {
+			double score = scorer.applyAsDouble(title);
+			if (!Double.isNaN(score))
+				checksum += score;
+		}
+		return checksum;
+	}
+}
@@ -0,0 +1,96 @@
+package com.iyadk.termsearch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import com.iyadk.termsearch.SearchIndex.SearchExecution;
+
+/**
+ * Compares searching the terms on the fixed search threads with the elastic search execution,
+ * first on a cold index and then on the same index once it is cached
+ *
+ * The index is evicted from the page cache before every cold run through /proc/sys/vm/drop_caches,
+ * which requires root.  Otherwise the cold runs only show the cost of opening the index.
+ *
+ * Every run starts with no source counted, and the order of the modes alternates between rounds so
+ * that neither mode always runs first.  The times are averaged over the rounds.
+ *
+ * Usage: SearchExecutionBenchmark index-dir terms-file [threads] [rounds]
+ */
+public class SearchExecutionBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: SearchExecutionBenchmark index-dir terms-file [threads] [rounds]");
+			return;
+		}
+		String indexDir = args[0];
+		String termsFile = args[1];
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+		long terms;
+		try (Stream<String> lines = Files.lines(Paths.get(termsFile), StandardCharsets.UTF_8)) {
+			terms = lines.filter(line -> !line.trim().isEmpty()).count();
+		}
+		Path outputFile = Files.createTempFile("term-search-benchmark", ".tsv");
+
+		try {
+			// Compile the search code first so the mode measured first is not slowed down by the JIT
+			search(indexDir, termsFile, outputFile, SearchExecution.FIXED, threads);
+
+			SearchExecution[] modes = SearchExecution.values();
+			double[][] seconds = new double[modes.length][2];
+			for (int round = 0; round < rounds; round++) {
+				for (int i = 0; i < modes.length; i++) {
+					SearchExecution searchExecution = modes[round % 2 == 0 ? i : modes.length - 1 - i];
+					if (!dropCaches())
+						System.out.println("The page cache could not be dropped so the cold run may read a cached index");
+					seconds[searchExecution.ordinal()][0] += search(indexDir, termsFile, outputFile, searchExecution, threads) / rounds;
+					seconds[searchExecution.ordinal()][1] += search(indexDir, termsFile, outputFile, searchExecution, threads) / rounds;
+				}
+			}
+
+			System.out.printf("%-8s %12s %12s %14s %14s%n", "Mode", "Cold (s)", "Warm (s)", "Cold terms/s", "Warm terms/s");
+			for (SearchExecution searchExecution : modes) {
+				double[] run = seconds[searchExecution.ordinal()];
+				System.out.printf("%-8s %12.2f %12.2f %14.0f %14.0f%n", searchExecution, run[0], run[1], terms / run[0], terms / run[1]);
+			}
+		} finally {
+			Files.delete(outputFile);
+		}
+	}
+
+	private static double search(String indexDir, String termsFile, Path outputFile, SearchExecution searchExecution, int threads)
+			throws Exception {
+		// Sources counted by the previous run would change the results of this one
+		SearchDocumentMatches.reset();
+		SearchIndex searchIndex = new SearchIndex(termsFile, outputFile.toString(), indexDir);
+		try {
+			searchIndex.setNumThreads(threads);
+			searchIndex.setSearchExecution(searchExecution);
+			long start = System.nanoTime();
+			searchIndex.searchAll("content");
+			return (System.nanoTime() - start) / 1e9;
+		} finally {
+			searchIndex.close();
+		}
+	}
+
+	/*
+	 * Evicts the clean pages of every file from the page cache
+	 * @return False if the caches could not be dropped
+	 */
+	private static boolean dropCaches() throws InterruptedException {
+		try {
+			new ProcessBuilder("sync").inheritIO().start().waitFor();
+			Files.write(Paths.get("/proc/sys/vm/drop_caches"), "3".getBytes(StandardCharsets.US_ASCII));
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.iyadk.termsearch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCorpusFiles {
+	private Path corpusDir;
+
+	@Before
+	public void setUp() throws IOException {
+		corpusDir = Files.createTempDirectory("term-search-corpus");
+		Files.createDirectories(corpusDir.resolve("b"));
+		for (String file : new String[] { "b/part-2.txt", "b/part-1.txt", "a.txt", "c.csv", ".hidden.txt" })
+			Files.write(corpusDir.resolve(file), "Doc 1.txt:content".getBytes());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.walk(corpusDir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+	}
+
+	/**
+	 * Ensure that directories list their visible files in path order
+	 */
+	@Test
+	public void testDirectory() throws IOException {
+		assertEquals(Arrays.asList(corpusDir.resolve("a.txt"), corpusDir.resolve("b/part-1.txt"), corpusDir.resolve("b/part-2.txt"),
+				corpusDir.resolve("c.csv")), CorpusFiles.expand(Collections.singletonList(corpusDir.toString())));
+	}
+
+	/**
+	 * Ensure that arguments keep their order and files listed twice are read once
+	 */
+	@Test
+	public void testGlobsAndFiles() throws IOException {
+		assertEquals(Arrays.asList(corpusDir.resolve("c.csv"), corpusDir.resolve("b/part-1.txt"), corpusDir.resolve("b/part-2.txt")),
+				CorpusFiles.expand(Arrays.asList(corpusDir.resolve("c.csv").toString(), corpusDir + "/b/*.txt",
+						corpusDir.resolve("b/part-2.txt").toString())));
+	}
+
+	/**
+	 * Ensure that gzip members, BGZF blocks and zip entries are decompressed in order
+	 */
+	@Test
+	public void testOpenCompressed() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 50000; i++)
+			text.append("Doc ").append(i % 7).append(".txt:line ").append(i).append('\n');
+		byte[] content = text.toString().getBytes(StandardCharsets.UTF_8);
+
+		// Two gzip members
+		Path gzipFile = corpusDir.resolve("corpus.gz");
+		try (OutputStream out = Files.newOutputStream(gzipFile)) {
+			out.write(gzip(Arrays.copyOfRange(content, 0, 1000)));
+			out.write(gzip(Arrays.copyOfRange(content, 1000, content.length)));
+		}
+		assertArrayEquals(content, readAll(gzipFile));
+
+		// Blocks of at most 64 KB followed by the empty end of file block
+		Path bgzfFile = corpusDir.resolve("corpus.bgz");
+		try (OutputStream out = Files.newOutputStream(bgzfFile)) {
+			for (int start = 0; start < content.length; start += 60000)
+				out.write(bgzfBlock(Arrays.copyOfRange(content, start, Math.min(content.length, start + 60000))));
+			out.write(bgzfBlock(new byte[0]));
+		}
+		assertTrue(BgzfInputStream.isBgzf(bgzfFile));
+		assertEquals(false, BgzfInputStream.isBgzf(gzipFile));
+		assertArrayEquals(content, readAll(bgzfFile));
+
+		// The first entry does not end with a new line
+		Path zipFile = corpusDir.resolve("corpus.zip");
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+			out.putNextEntry(new ZipEntry("part-1.txt"));
+			out.write("Doc 1.txt:first".getBytes(StandardCharsets.UTF_8));
+			out.putNextEntry(new ZipEntry("part-2.txt"));
+			out.write("Doc 2.txt:second\n".getBytes(StandardCharsets.UTF_8));
+		}
+		assertEquals("Doc 1.txt:first\nDoc 2.txt:second\n", new String(readAll(zipFile), StandardCharsets.UTF_8));
+	}
+
+	private static byte[] readAll(Path path) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		try (InputStream in = CorpusFiles.open(path, 3)) {
+			int read;
+			while ((read = in.read(buffer)) > -1)
+				content.write(buffer, 0, read);
+		}
+		return content.toByteArray();
+	}
+
+	private static byte[] gzip(byte[] content) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+			out.write(content);
+		}
+		return compressed.toByteArray();
+	}
+
+	/*
+	 * Builds a gzip member with the BC extra subfield holding the size of the member
+	 */
+	private static byte[] bgzfBlock(byte[] content) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(content);
+		deflater.finish();
+		byte[] deflated = new byte[content.length + 1024];
+		int deflatedLength = deflater.deflate(deflated);
+		deflater.end();
+
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		ByteBuffer block = ByteBuffer.allocate(18 + deflatedLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+		block.put(new byte[] { 31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255 });
+		block.putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2).putShort((short) (block.capacity() - 1));
+		block.put(deflated, 0, deflatedLength);
+		block.putInt((int) crc.getValue()).putInt(content.length);
+		return block.array();
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testMissing() throws IOException {
+		CorpusFiles.expand(Arrays.asList(corpusDir.resolve("a.txt").toString(), corpusDir + "/*.json"));
+	}
+}
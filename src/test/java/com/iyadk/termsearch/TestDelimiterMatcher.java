@@ -0,0 +1,95 @@
+package com.iyadk.termsearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TestDelimiterMatcher {
+
+	/**
+	 * Ensure that the title found in the bytes of a line is the one split by the delimiter regex
+	 */
+	@Test
+	public void testMatchesRegex() {
+		String[] delimiters = {".txt:", ":", "\\t", "\\|", "\u00e9.:"};
+		String[] lines = {
+				"Test Doc 0 - 1.txt:This is sample text",
+				"Test Doc 0 - 1.txt:text.txt:twice",
+				"txt:at the start",
+				".txt:after a period",
+				"\r.txt:after a carriage return",
+				"Doc\r\u0085.txt:after a next line",
+				"Caf\u00e9 \u2028txt:after a line separator",
+				"Caf\u00e9 \u00e9.txt:after a two byte character",
+				"\u00dcn\u00efc\u00f6d\u00e9 \u4e2d\u6587.txt:\u4e2d\u6587 content",
+				"Emoji \ud83d\ude00.txt:after a four byte character",
+				"No delimiter at all",
+				"Tab\tseparated|pipe:colon \u00e9!: caf\u00e9",
+				"",
+		};
+		for (Charset charset : new Charset[] {StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.US_ASCII}) {
+			for (String delimiter : delimiters) {
+				DelimiterMatcher matcher = DelimiterMatcher.compile(delimiter, charset);
+				if (!charset.newEncoder().canEncode(delimiter)) {
+					assertNull("The delimiter " + delimiter + " cannot be encoded in " + charset, matcher);
+					continue;
+				}
+				assertNotNull("The delimiter " + delimiter + " is supported", matcher);
+				Pattern pattern = Pattern.compile(delimiter);
+				for (String line : lines) {
+					// The lines are read back as the corpus would be so unmappable characters are replaced
+					byte[] bytes = line.getBytes(charset);
+					String decodedLine = new String(bytes, charset);
+					int match = matcher.find(ByteBuffer.wrap(bytes), 0, bytes.length);
+					if (match == DelimiterMatcher.MALFORMED) {
+						assertTrue("Only US-ASCII lines with other bytes are malformed", charset.equals(StandardCharsets.US_ASCII)
+								&& !StandardCharsets.US_ASCII.newEncoder().canEncode(line));
+						continue;
+					}
+					String[] splitLine = pattern.split(decodedLine, 2);
+					String expected = splitLine.length == 2 ? splitLine[0] : null;
+					String title = match >= 0 ? new String(bytes, 0, match, charset) : null;
+					assertEquals("The " + charset + " title of \"" + line + "\" split on " + delimiter, expected, title);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ensure that a line with malformed bytes before its delimiter is left to the regex
+	 */
+	@Test
+	public void testMalformed() {
+		DelimiterMatcher matcher = DelimiterMatcher.compile(".txt:", StandardCharsets.UTF_8);
+		byte[][] lines = {
+				{'a', (byte) 0xE2, 'x', '.', 't', 'x', 't', ':'},
+				{'a', (byte) 0xC0, (byte) 0xAF, 't', 'x', 't', ':'},
+				{'a', (byte) 0xED, (byte) 0xA0, (byte) 0x80, 't', 'x', 't', ':'},
+		};
+		for (byte[] line : lines)
+			assertEquals(DelimiterMatcher.MALFORMED, matcher.find(ByteBuffer.wrap(line), 0, line.length));
+
+		// Malformed bytes after the delimiter are not decoded
+		byte[] line = {'a', '.', 't', 'x', 't', ':', (byte) 0xFF};
+		assertEquals(1, matcher.find(ByteBuffer.wrap(line), 0, line.length));
+	}
+
+	/**
+	 * Ensure that delimiters that are not literal characters or '.' are left to the regex
+	 */
+	@Test
+	public void testUnsupported() {
+		for (String delimiter : new String[] {"", "\\s+", "[:;]", "a|b", "\\Q:\\E", ":$", "\\"})
+			assertNull(delimiter, DelimiterMatcher.compile(delimiter, StandardCharsets.UTF_8));
+		assertNull(DelimiterMatcher.compile(":", StandardCharsets.UTF_16));
+		assertNull(DelimiterMatcher.compile("\u00e9:", StandardCharsets.US_ASCII));
+	}
+}
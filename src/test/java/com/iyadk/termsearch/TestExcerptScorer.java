@@ -0,0 +1,32 @@
+package com.iyadk.termsearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestExcerptScorer {
+
+	/**
+	 * Ensure that the minimum score is the score of an excerpt that only holds the words of the term
+	 */
+	@Test
+	public void testMinimumScore() {
+		ExcerptScorer excerptScorer = new ExcerptScorer();
+		excerptScorer.addCharScoringCriteria(new ExcerptScorerUppercase()).setPenalty(1);
+		excerptScorer.addCharScoringCriteria(new ExcerptScorerPunctuation()).setPenalty(1);
+		excerptScorer.addFullScoringCriteria(new ExcerptScorerLength(1, 100, true)).setPenalty(100);
+
+		Excerpt excerpt = new Excerpt("Harry Potter");
+		assertTrue("The excerpt was skipped", excerptScorer.score(excerpt, "Harry Potter"));
+		assertEquals("The minimum score is not the score of the term", excerpt.getScore(),
+				excerptScorer.getMinimumScore("Harry Potter"));
+
+		// Hyphens and periods are not matched
+		assertEquals("The hyphen of the term was scored", 1, excerptScorer.getMinimumScore("well-groomed"));
+
+		excerptScorer.addCharScoringCriteria(new ExcerptScorerDigit()).setPenalty(-1);
+		assertEquals("The minimum score is bounded with a negative penalty", Integer.MIN_VALUE,
+				excerptScorer.getMinimumScore("Harry Potter"));
+	}
+}
@@ -3,11 +3,34 @@
  */
 package com.iyadk.termsearch;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.MMapDirectory;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -38,6 +61,500 @@ public class TestIndexCreator extends TestCase {
 		assert true;
 	}
 	
+	/*
+	 * Ensure that memory mapping the corpus produces the same documents and docIds as streaming it
+	 */
+	@Test
+	public void testCreateMapped() throws IOException {
+		String corpusFile = TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile().toString();
+		String mappedIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+
+		indexCreator.create();
+
+		IndexCreator mappedIndexCreator = new IndexCreator(corpusFile, mappedIndexDir);
+		mappedIndexCreator.setCorpusReader(IndexCreator.CorpusReader.MMAP);
+		mappedIndexCreator.setNumThreads(2);
+		mappedIndexCreator.create();
+
+		List<String> streamedDocuments = readDocuments(indexDir);
+		assertFalse("No documents were indexed from the corpus", streamedDocuments.isEmpty());
+		assertEquals("The memory mapped corpus produced different documents",
+				streamedDocuments, readDocuments(mappedIndexDir));
+
+		Files.walk(Paths.get(mappedIndexDir)).map(Path::toFile).forEach(File::delete);
+	}
+
+	/*
+	 * Ensure that building partial indexes in parallel produces the same documents and docIds
+	 */
+	@Test
+	public void testCreatePartitioned() throws IOException {
+		String corpusFile = TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile().toString();
+		String partitionedIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+
+		indexCreator.create();
+
+		IndexCreator partitionedIndexCreator = new IndexCreator(corpusFile, partitionedIndexDir);
+		partitionedIndexCreator.setCorpusReader(IndexCreator.CorpusReader.MMAP);
+		partitionedIndexCreator.setNumThreads(2);
+		partitionedIndexCreator.setPartitions(2);
+		partitionedIndexCreator.setMergeSegments(1);
+		partitionedIndexCreator.create();
+
+		assertEquals("The partitioned index contains different documents",
+				readDocuments(indexDir), readDocuments(partitionedIndexDir));
+
+		try (MMapDirectory directory = new MMapDirectory(Paths.get(partitionedIndexDir));
+				DirectoryReader reader = DirectoryReader.open(directory)) {
+			assertEquals("The partitioned index was not merged", 1, reader.leaves().size());
+		}
+		assertFalse("The partitions were not removed", Files.exists(Paths.get(partitionedIndexDir + "-partition-0")));
+
+		Files.walk(Paths.get(partitionedIndexDir)).map(Path::toFile).forEach(File::delete);
+	}
+
+	/*
+	 * Ensure that the index profile is recorded and that excerpts are highlighted by re-analyzing the content
+	 */
+	@Test
+	public void testIndexProfileReanalysis() throws Exception {
+		String termsFile = TestSearchIndex.class.getClassLoader().getResource("test-terms.txt").getFile().toString();
+		Path outputFile = Files.createTempFile("term-search-test", ".tsv");
+
+		indexCreator.setIndexProfile(IndexProfile.REANALYSIS);
+		indexCreator.create();
+
+		try (MMapDirectory directory = new MMapDirectory(Paths.get(indexDir));
+				DirectoryReader reader = DirectoryReader.open(directory)) {
+			assertEquals("The index profile was not recorded in the commit metadata",
+					IndexProfile.REANALYSIS.name(), reader.getIndexCommit().getUserData().get(IndexProfile.COMMIT_KEY));
+
+			FieldInfo contentInfo = FieldInfos.getMergedFieldInfos(reader).fieldInfo("content");
+			assertFalse("Term vectors were stored for the content", contentInfo.hasVectors());
+			assertEquals("Offsets were stored for the content",
+					IndexOptions.DOCS_AND_FREQS_AND_POSITIONS, contentInfo.getIndexOptions());
+		}
+
+		SearchIndex searchIndex = new SearchIndex(termsFile, outputFile.toString(), indexDir);
+		searchIndex.searchAll("content");
+		searchIndex.close();
+
+		List<String> results = Files.readAllLines(outputFile);
+		assertFalse("No excerpts were highlighted", results.isEmpty());
+		for (String result : results) {
+			String[] columns = result.split("\t");
+			assertTrue("The excerpt does not contain the term", columns[1].contains(columns[0]));
+		}
+
+		Files.delete(outputFile);
+	}
+
+	/*
+	 * Ensure that titles have doc values and that the results are written with the title of their document
+	 */
+	@Test
+	public void testTitleDocValues() throws Exception {
+		String termsFile = TestSearchIndex.class.getClassLoader().getResource("test-terms.txt").getFile().toString();
+		Path outputFile = Files.createTempFile("term-search-test", ".tsv");
+
+		indexCreator.create();
+
+		Map<String, String> titles = new HashMap<>();
+		try (MMapDirectory directory = new MMapDirectory(Paths.get(indexDir));
+				DirectoryReader reader = DirectoryReader.open(directory)) {
+			assertEquals("The titles have no doc values",
+					DocValuesType.SORTED, FieldInfos.getMergedFieldInfos(reader).fieldInfo("title").getDocValuesType());
+			for (int i = 0; i < reader.maxDoc(); i++) {
+				Document document = reader.document(i);
+				titles.put(document.get("content"), document.get("title"));
+			}
+		}
+
+		SearchIndex searchIndex = new SearchIndex(termsFile, outputFile.toString(), indexDir);
+		searchIndex.searchAll("content");
+		searchIndex.close();
+
+		List<String> results = Files.readAllLines(outputFile);
+		assertFalse("No excerpts were written", results.isEmpty());
+		for (String result : results) {
+			String[] columns = result.split("\t");
+			assertEquals("The excerpt was written with the title of another document", titles.get(columns[1]), columns[2]);
+		}
+
+		Files.delete(outputFile);
+	}
+
+	/*
+	 * Ensure that appending a corpus continues the line numbering and reuses the docIds of existing titles
+	 */
+	@Test
+	public void testAppend() throws IOException {
+		String corpusFile = TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile().toString();
+
+		indexCreator.create();
+		List<String> documents = readDocuments(indexDir);
+		String lastLineId;
+		try (MMapDirectory directory = new MMapDirectory(Paths.get(indexDir));
+				DirectoryReader reader = DirectoryReader.open(directory)) {
+			lastLineId = reader.getIndexCommit().getUserData().get(IndexCreator.LAST_LINE_ID_KEY);
+		}
+
+		IndexCreator appendIndexCreator = new IndexCreator(corpusFile, indexDir);
+		appendIndexCreator.setAppend(true);
+		appendIndexCreator.create();
+
+		List<String> appendedDocuments = new ArrayList<>();
+		for (String document : documents) {
+			appendedDocuments.add(document);
+			appendedDocuments.add(document);
+		}
+		Collections.sort(appendedDocuments);
+		assertEquals("The appended titles were not assigned their existing docIds", appendedDocuments, readDocuments(indexDir));
+
+		try (MMapDirectory directory = new MMapDirectory(Paths.get(indexDir));
+				DirectoryReader reader = DirectoryReader.open(directory)) {
+			assertEquals("The line numbering did not continue from the existing index",
+					Long.toString(2 * Long.parseLong(lastLineId)),
+					reader.getIndexCommit().getUserData().get(IndexCreator.LAST_LINE_ID_KEY));
+		}
+	}
+
+	/**
+	 * Ensure that resuming from a checkpoint indexes the rest of the corpus exactly once
+	 */
+	@Test
+	public void testResume() throws IOException {
+		String corpusFile = TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile().toString();
+
+		indexCreator.create();
+		List<String> documents = readDocuments(indexDir);
+
+		// Index the first lines of the corpus and commit a checkpoint as if the build was interrupted
+		List<String> corpusLines = Files.readAllLines(Paths.get(corpusFile));
+		int checkpointLines = corpusLines.size() / 2;
+		Path prefixFile = Files.createTempFile("term-search-test", ".txt");
+		Files.write(prefixFile, corpusLines.subList(0, checkpointLines));
+		String resumedIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+		new IndexCreator(prefixFile.toString(), resumedIndexDir).create();
+
+		try (MMapDirectory directory = new MMapDirectory(Paths.get(resumedIndexDir));
+				IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig().setOpenMode(IndexWriterConfig.OpenMode.APPEND))) {
+			Map<String, String> commitData = new HashMap<>();
+			commitData.put(IndexProfile.COMMIT_KEY, IndexProfile.FULL.name());
+			commitData.put(IndexCreator.LAST_LINE_ID_KEY, Integer.toString(checkpointLines));
+			commitData.put(IndexCreator.CORPUS_OFFSET_KEY, Long.toString(Files.size(prefixFile)));
+			commitData.put(IndexCreator.INDEXED_LINES_KEY, "");
+			writer.setLiveCommitData(commitData.entrySet());
+			writer.commit();
+		}
+
+		IndexCreator resumedIndexCreator = new IndexCreator(corpusFile, resumedIndexDir);
+		resumedIndexCreator.setResume(true);
+		resumedIndexCreator.create();
+		assertEquals("The resumed index has different documents", documents, readDocuments(resumedIndexDir));
+
+		try (MMapDirectory directory = new MMapDirectory(Paths.get(resumedIndexDir));
+				DirectoryReader reader = DirectoryReader.open(directory)) {
+			assertFalse("The completed index still has a checkpoint",
+					reader.getIndexCommit().getUserData().containsKey(IndexCreator.CORPUS_OFFSET_KEY));
+		}
+
+		Files.delete(prefixFile);
+		Files.walk(Paths.get(resumedIndexDir)).map(Path::toFile).forEach(File::delete);
+	}
+
+	/**
+	 * Ensure that a build killed after one of its periodic commits resumes from that commit and
+	 * indexes the rest of the corpus exactly once, including the lines indexed but not committed
+	 * when it was killed
+	 */
+	@Test
+	public void testResumeAfterKill() throws Exception {
+		// The build commits after every batch so it commits many times before it completes
+		Path corpusFile = Files.createTempFile("term-search-test", ".txt");
+		String[] words = {"alpha", "beta", "gamma", "delta", "cookie", "search", "term", "index", "lucene", "corpus"};
+		Random random = new Random(42);
+		List<String> corpusLines = new ArrayList<>();
+		for (int i = 0; i < 6000; i++) {
+			StringBuilder line = new StringBuilder("Doc " + i + " - 1.txt:");
+			for (int j = 0; j < 12; j++)
+				line.append(j == 0 ? "" : " ").append(words[random.nextInt(words.length)]);
+			corpusLines.add(line.toString());
+		}
+		Files.write(corpusFile, corpusLines);
+
+		String completeIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+		new IndexCreator(corpusFile.toString(), completeIndexDir).create();
+		List<String> documents = readDocuments(completeIndexDir);
+
+		// Build in another JVM and kill it once it committed a few checkpoints
+		String resumedIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+		Process build = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+				"-cp", System.getProperty("java.class.path"), CommittingBuild.class.getName(), corpusFile.toString(), resumedIndexDir)
+				.redirectErrorStream(true).start();
+		int commits = 0;
+		try (BufferedReader output = new BufferedReader(new InputStreamReader(build.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while (commits < 3 && (line = output.readLine()) != null) {
+				if (line.startsWith("Committed the index up to line"))
+					commits++;
+			}
+		} finally {
+			build.destroyForcibly().waitFor();
+		}
+		assertEquals("The build completed before committing checkpoints", 3, commits);
+
+		try (MMapDirectory directory = new MMapDirectory(Paths.get(resumedIndexDir));
+				DirectoryReader reader = DirectoryReader.open(directory)) {
+			assertTrue("The killed build did not leave a checkpoint",
+					reader.getIndexCommit().getUserData().containsKey(IndexCreator.CORPUS_OFFSET_KEY));
+			assertTrue("The killed build committed the whole corpus", reader.numDocs() < documents.size());
+		}
+
+		IndexCreator resumedIndexCreator = new IndexCreator(corpusFile.toString(), resumedIndexDir);
+		resumedIndexCreator.setResume(true);
+		resumedIndexCreator.create();
+		assertEquals("The resumed index has different documents", documents, readDocuments(resumedIndexDir));
+
+		try (MMapDirectory directory = new MMapDirectory(Paths.get(resumedIndexDir));
+				DirectoryReader reader = DirectoryReader.open(directory)) {
+			assertFalse("The completed index still has a checkpoint",
+					reader.getIndexCommit().getUserData().containsKey(IndexCreator.CORPUS_OFFSET_KEY));
+		}
+
+		Files.delete(corpusFile);
+		Files.walk(Paths.get(completeIndexDir)).map(Path::toFile).forEach(File::delete);
+		Files.walk(Paths.get(resumedIndexDir)).map(Path::toFile).forEach(File::delete);
+	}
+
+	/**
+	 * Builds the index of a corpus in its own JVM, committing a checkpoint after every batch of lines
+	 *
+	 * Usage: CommittingBuild corpus-file index-dir
+	 */
+	public static class CommittingBuild {
+		public static void main(String[] args) throws IOException {
+			IndexCreator committingIndexCreator = new IndexCreator(args[0], args[1]);
+			committingIndexCreator.setCommitIntervalNanos(1);
+			committingIndexCreator.create();
+		}
+	}
+
+	/**
+	 * Ensure that the metrics count every line and document and are written as JSON
+	 */
+	@Test
+	public void testMetrics() throws IOException {
+		Path metricsFile = Files.createTempFile("term-search-test", ".json");
+		indexCreator.setMetricsPath(metricsFile);
+		indexCreator.create();
+
+		IndexMetrics metrics = indexCreator.getMetrics();
+		assertEquals(readDocuments(indexDir).size(), metrics.documents.sum());
+		assertEquals(metrics.lines.sum(), metrics.documents.sum() + metrics.malformedLines.sum() + metrics.droppedLines.sum());
+		assertEquals(Files.size(Paths.get(TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile())),
+				metrics.bytes.sum());
+
+		String json = new String(Files.readAllBytes(metricsFile), "UTF-8");
+		assertTrue(json.contains("\"documents\": " + metrics.documents.sum() + ","));
+		assertFalse("The flush of the index was not measured", json.contains("\"flushes\": 0,"));
+		Files.delete(metricsFile);
+	}
+
+	/**
+	 * Ensure that a streamed index that flushed many segments is merged into the requested number of segments
+	 */
+	@Test
+	public void testFinalizeIndex() throws IOException {
+		String corpusFile = TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile().toString();
+		String mergedIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+		Path metricsFile = Files.createTempFile("term-search-test", ".json");
+
+		indexCreator.create();
+
+		// Flush a segment every few documents
+		WriterTuning writerTuning = new WriterTuning();
+		writerTuning.setMaxBufferedDocs(2);
+		IndexCreator mergedIndexCreator = new IndexCreator(corpusFile, mergedIndexDir);
+		mergedIndexCreator.setWriterTuning(writerTuning);
+		mergedIndexCreator.setMergeSegments(1);
+		mergedIndexCreator.setMetricsPath(metricsFile);
+		mergedIndexCreator.create();
+
+		assertEquals("The merged index contains different documents", readDocuments(indexDir), readDocuments(mergedIndexDir));
+		try (MMapDirectory directory = new MMapDirectory(Paths.get(mergedIndexDir));
+				DirectoryReader reader = DirectoryReader.open(directory)) {
+			assertEquals("The index was not merged", 1, reader.leaves().size());
+		}
+		String json = new String(Files.readAllBytes(metricsFile), "UTF-8");
+		assertTrue("The segments were not reported", json.contains("\"segments\": 1,"));
+
+		Files.delete(metricsFile);
+		Files.walk(Paths.get(mergedIndexDir)).map(Path::toFile).forEach(File::delete);
+	}
+
+	/**
+	 * Ensure that a content shared by several lines is indexed once and its other lines are indexed as aliases
+	 */
+	@Test
+	public void testDedupContent() throws IOException {
+		String corpusFile = TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile().toString();
+		String dedupIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+
+		indexCreator.create();
+
+		IndexCreator dedupIndexCreator = new IndexCreator(corpusFile, dedupIndexDir);
+		dedupIndexCreator.setDedupContent(true);
+		dedupIndexCreator.create();
+
+		Set<String> titles = new HashSet<>();
+		Set<String> contents = new HashSet<>();
+		for (String document : readDocuments(indexDir)) {
+			String[] fields = document.split("\t");
+			titles.add(fields[0] + "\t" + fields[1]);
+			contents.add(fields[2]);
+		}
+
+		Set<String> dedupTitles = new HashSet<>();
+		List<String> dedupContents = new ArrayList<>();
+		for (String document : readDocuments(dedupIndexDir)) {
+			String[] fields = document.split("\t", -1);
+			dedupTitles.add(fields[0] + "\t" + fields[1]);
+			if (!fields[2].isEmpty())
+				dedupContents.add(fields[2]);
+		}
+		assertEquals("The titles and docIds of the duplicates were not kept", titles, dedupTitles);
+		assertEquals("Every distinct content must be indexed once", contents.size(), dedupContents.size());
+		assertEquals(contents, new HashSet<>(dedupContents));
+		assertTrue("The corpus has no duplicate contents", dedupIndexCreator.getMetrics().duplicateDocuments.sum() > 0);
+
+		Files.walk(Paths.get(dedupIndexDir)).map(Path::toFile).forEach(File::delete);
+	}
+
+	/**
+	 * Ensure that resuming and appending with deduplication do not index the contents of the existing index again
+	 */
+	@Test
+	public void testDedupContentResume() throws IOException {
+		String corpusFile = TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile().toString();
+		String dedupIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+
+		IndexCreator dedupIndexCreator = new IndexCreator(corpusFile, dedupIndexDir);
+		dedupIndexCreator.setDedupContent(true);
+		dedupIndexCreator.create();
+		List<String> documents = readDocuments(dedupIndexDir);
+
+		// Index the first lines of the corpus and commit a checkpoint as if the build was interrupted
+		List<String> corpusLines = Files.readAllLines(Paths.get(corpusFile));
+		int checkpointLines = corpusLines.size() / 2;
+		Path prefixFile = Files.createTempFile("term-search-test", ".txt");
+		Files.write(prefixFile, corpusLines.subList(0, checkpointLines));
+		String resumedIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+		IndexCreator prefixIndexCreator = new IndexCreator(prefixFile.toString(), resumedIndexDir);
+		prefixIndexCreator.setDedupContent(true);
+		prefixIndexCreator.create();
+
+		try (MMapDirectory directory = new MMapDirectory(Paths.get(resumedIndexDir));
+				IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig().setOpenMode(IndexWriterConfig.OpenMode.APPEND))) {
+			Map<String, String> commitData = new HashMap<>();
+			commitData.put(IndexProfile.COMMIT_KEY, IndexProfile.FULL.name());
+			commitData.put(IndexCreator.DEDUP_CONTENT_KEY, Boolean.TRUE.toString());
+			commitData.put(IndexCreator.LAST_LINE_ID_KEY, Integer.toString(checkpointLines));
+			commitData.put(IndexCreator.CORPUS_OFFSET_KEY, Long.toString(Files.size(prefixFile)));
+			commitData.put(IndexCreator.INDEXED_LINES_KEY, "");
+			writer.setLiveCommitData(commitData.entrySet());
+			writer.commit();
+		}
+
+		IndexCreator resumedIndexCreator = new IndexCreator(corpusFile, resumedIndexDir);
+		resumedIndexCreator.setDedupContent(true);
+		resumedIndexCreator.setResume(true);
+		resumedIndexCreator.create();
+		assertEquals("The resumed index indexed existing contents again", documents, readDocuments(resumedIndexDir));
+
+		// Every content of the appended corpus is already in the index
+		IndexCreator appendIndexCreator = new IndexCreator(corpusFile, dedupIndexDir);
+		appendIndexCreator.setAppend(true);
+		appendIndexCreator.create();
+		assertEquals("The appended lines were not all indexed as aliases", appendIndexCreator.getMetrics().lines.sum(),
+				appendIndexCreator.getMetrics().duplicateDocuments.sum());
+
+		Files.delete(prefixFile);
+		Files.walk(Paths.get(resumedIndexDir)).map(Path::toFile).forEach(File::delete);
+		Files.walk(Paths.get(dedupIndexDir)).map(Path::toFile).forEach(File::delete);
+	}
+
+	/**
+	 * Ensure that a corpus split across several files is numbered like the single corpus file by both readers
+	 */
+	@Test
+	public void testCreateMultipleFiles() throws IOException {
+		Path corpusFile = Paths.get(TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile());
+		Path shardDir = Files.createTempDirectory("term-search-shards");
+		List<String> lines = Files.readAllLines(corpusFile);
+		// The middle shard does not end with a new line
+		Files.write(shardDir.resolve("part-0.txt"), (String.join("\n", lines.subList(0, 10)) + "\n").getBytes());
+		Files.write(shardDir.resolve("part-1.txt"), String.join("\n", lines.subList(10, 20)).getBytes());
+		Files.write(shardDir.resolve("part-2.txt"), (String.join("\n", lines.subList(20, lines.size())) + "\n").getBytes());
+
+		indexCreator.create();
+
+		for (IndexCreator.CorpusReader corpusReader : IndexCreator.CorpusReader.values()) {
+			String shardIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+			IndexCreator shardIndexCreator = new IndexCreator(CorpusFiles.expand(Collections.singletonList(shardDir.toString())), shardIndexDir);
+			shardIndexCreator.setCorpusReader(corpusReader);
+			shardIndexCreator.setNumThreads(2);
+			shardIndexCreator.create();
+
+			assertEquals(corpusReader + " numbered the corpus files differently than the corpus",
+					readDocuments(indexDir), readDocuments(shardIndexDir));
+			Files.walk(Paths.get(shardIndexDir)).map(Path::toFile).forEach(File::delete);
+		}
+
+		Files.walk(shardDir).map(Path::toFile).forEach(File::delete);
+	}
+
+	/**
+	 * Ensure that a gzip compressed corpus produces the same documents as the plain corpus
+	 */
+	@Test
+	public void testCreateCompressed() throws IOException {
+		Path corpusFile = Paths.get(TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile());
+		Path compressedFile = Files.createTempFile("test-corpus", ".txt.gz");
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressedFile))) {
+			Files.copy(corpusFile, out);
+		}
+		String compressedIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+
+		indexCreator.create();
+
+		IndexCreator compressedIndexCreator = new IndexCreator(compressedFile.toString(), compressedIndexDir);
+		compressedIndexCreator.setNumThreads(2);
+		compressedIndexCreator.create();
+
+		assertEquals("The compressed corpus produced different documents", readDocuments(indexDir), readDocuments(compressedIndexDir));
+		assertEquals(Files.size(corpusFile), compressedIndexCreator.getMetrics().bytes.sum());
+
+		Files.delete(compressedFile);
+		Files.walk(Paths.get(compressedIndexDir)).map(Path::toFile).forEach(File::delete);
+	}
+
+	/*
+	 * Returns the sorted title, docId, and content of every document in the index
+	 */
+	private List<String> readDocuments(String index) throws IOException {
+		List<String> documents = new ArrayList<>();
+		try (MMapDirectory directory = new MMapDirectory(Paths.get(index));
+				DirectoryReader reader = DirectoryReader.open(directory)) {
+			for (int i = 0; i < reader.maxDoc(); i++) {
+				Document doc = reader.document(i);
+				documents.add(doc.get("title") + "\t" + doc.get("docId") + "\t" + doc.get("content"));
+			}
+		}
+		Collections.sort(documents);
+		return documents;
+	}
+
 	@AfterClass
 	public void teadDown() throws IOException {
 		System.out.println("Deleting index");
@@ -0,0 +1,96 @@
+package com.iyadk.termsearch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestReadAheadInputStream {
+	private Path file;
+	private byte[] content;
+
+	@Before
+	public void setUp() throws IOException {
+		content = new byte[100000];
+		new Random(42).nextBytes(content);
+		file = Files.createTempFile("term-search-read-ahead", ".txt");
+		Files.write(file, content);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.delete(file);
+	}
+
+	/**
+	 * Ensure that the buffers are consumed in file order whatever the size of the reads
+	 */
+	@Test
+	public void testRead() throws IOException {
+		for (int readSize : new int[] { 1, 777, 4096, 200000 }) {
+			ByteArrayOutputStream read = new ByteArrayOutputStream();
+			try (InputStream in = new ReadAheadInputStream(file, 3, 1000)) {
+				byte[] buffer = new byte[readSize];
+				int length;
+				while ((length = in.read(buffer)) > -1)
+					read.write(buffer, 0, length);
+			}
+			assertArrayEquals("Read size " + readSize, content, read.toByteArray());
+		}
+	}
+
+	/**
+	 * Ensure that a file smaller than the buffers read ahead only holds as much memory as its size
+	 */
+	@Test
+	public void testSizedToFile() throws IOException {
+		try (ReadAheadInputStream in = new ReadAheadInputStream(file, 8, 4 * 1024 * 1024)) {
+			assertEquals(content.length, in.getBufferedBytes());
+		}
+		try (ReadAheadInputStream in = new ReadAheadInputStream(file, 8, 30000)) {
+			// Four buffers hold the whole file
+			assertEquals(4 * 30000, in.getBufferedBytes());
+			ByteArrayOutputStream read = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int length;
+			while ((length = in.read(buffer)) > -1)
+				read.write(buffer, 0, length);
+			assertArrayEquals(content, read.toByteArray());
+		}
+
+		Path emptyFile = Files.createTempFile("term-search-read-ahead", ".txt");
+		try (ReadAheadInputStream in = new ReadAheadInputStream(emptyFile, 8, 1000)) {
+			assertEquals(-1, in.read());
+		} finally {
+			Files.delete(emptyFile);
+		}
+	}
+
+	/**
+	 * Ensure that skipping within a buffer, past the buffers read ahead and past the end is positioned correctly
+	 */
+	@Test
+	public void testSkip() throws IOException {
+		try (InputStream in = new ReadAheadInputStream(file, 3, 1000)) {
+			assertEquals(10, in.skip(10));
+			assertEquals(content[10] & 0xff, in.read());
+			assertEquals(50000, in.skip(50000));
+			byte[] buffer = new byte[5000];
+			// The reads ahead restart at the position skipped to
+			assertEquals(1000, in.read(buffer));
+			assertArrayEquals(Arrays.copyOfRange(content, 50011, 51011), Arrays.copyOf(buffer, 1000));
+			assertEquals(content.length - 51011, in.skip(content.length));
+			assertEquals(-1, in.read());
+		}
+	}
+}
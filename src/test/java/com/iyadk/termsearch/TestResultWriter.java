@@ -0,0 +1,85 @@
+package com.iyadk.termsearch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestResultWriter {
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("term-search-results", ".tsv");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.delete(file);
+	}
+
+	/**
+	 * Ensure that batches completed out of order are written in the order of their terms
+	 */
+	@Test
+	public void testOrdered() throws Exception {
+		try (ResultWriter resultWriter = new ResultWriter(file.toFile(), true, 4)) {
+			resultWriter.write(3, "d\n");
+			resultWriter.write(1, "b\n");
+			resultWriter.write(2, "");
+			resultWriter.write(0, "a\n");
+			resultWriter.write(4, "e\n");
+		}
+
+		assertEquals("The batches were not written in order", Arrays.asList("a", "b", "d", "e"), readLines());
+	}
+
+	/**
+	 * Ensure that a batch ahead of a full reorder buffer waits for the earlier batches to be written
+	 */
+	@Test
+	public void testOrderedBufferFull() throws Exception {
+		try (ResultWriter resultWriter = new ResultWriter(file.toFile(), true, 1)) {
+			resultWriter.write(1, "b\n");
+			Thread earlierTerm = new Thread(() -> {
+				try {
+					Thread.sleep(100);
+					resultWriter.write(0, "a\n");
+				} catch (IOException | InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			earlierTerm.start();
+			resultWriter.write(2, "c\n");
+			earlierTerm.join();
+		}
+
+		assertEquals("The batches were not written in order", Arrays.asList("a", "b", "c"), readLines());
+	}
+
+	/**
+	 * Ensure that every batch is written when the order does not matter
+	 */
+	@Test
+	public void testUnordered() throws Exception {
+		try (ResultWriter resultWriter = new ResultWriter(file.toFile(), false, 1)) {
+			resultWriter.write(1, "b\n");
+			resultWriter.write(0, "a\n");
+		}
+
+		assertEquals("The batches were not written", Arrays.asList("b", "a"), readLines());
+	}
+
+	private List<String> readLines() throws IOException {
+		// The results are written with the platform charset
+		return Files.readAllLines(file, Charset.defaultCharset());
+	}
+}
@@ -0,0 +1,119 @@
+package com.iyadk.termsearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.iyadk.termsearch.ScoreOffsetRule.SearchTypeEnum;
+
+public class TestScoreOffsetRuleSet {
+
+	/**
+	 * Applies the rules one at a time the way the indexer did before they were compiled
+	 * @return The adjusted score or NaN if the document is dropped
+	 */
+	static double applyEach(List<ScoreOffsetRule> rules, String title, double score) {
+		for (ScoreOffsetRule scoreOffsetRule : rules) {
+			if (scoreOffsetRule.applies(title) == false)
+				continue;
+			if (scoreOffsetRule.scoreAdjustment == 0)
+				return Double.NaN;
+			score = score + scoreOffsetRule.scoreAdjustment;
+			if (scoreOffsetRule.stopAfter)
+				break;
+		}
+		return score;
+	}
+
+	/**
+	 * Creates random rules over a small alphabet so that titles match several overlapping rules
+	 */
+	static List<ScoreOffsetRule> randomRules(Random random, int count) {
+		List<ScoreOffsetRule> rules = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			String text = randomText(random, 1 + random.nextInt(4));
+			double scoreAdjustment = random.nextInt(10) == 0 ? 0 : random.nextInt(7) - 3 + 0.5;
+			boolean stopAfter = random.nextInt(8) == 0;
+			if (random.nextBoolean()) {
+				rules.add(new ScoreOffsetRule(SearchTypeEnum.EXACT, text, scoreAdjustment, stopAfter));
+			} else {
+				String[] regexes = { text, "^" + text, text + "$", text + "[0-9]", "(" + text + ")\\1", "(?i)" + text.toUpperCase(), "(?i)" + text.toUpperCase() + "[0-9]",
+						text + "+" + text, text + "?" + text, "[ab]{2}" + text, text + "|" + text + "d",
+						text + "|d" + text + "|" + text + "1", "(" + text + "|c" + text + ")", "(?:" + text + "|" + text + "a)",
+						"(" + text + "|b" + text + ")[0-9]", "(?i)" + text.toUpperCase() + "|D" + text.toUpperCase(), text + "(c|d)" + text };
+				rules.add(new ScoreOffsetRule(SearchTypeEnum.REGEX, regexes[random.nextInt(regexes.length)], scoreAdjustment, stopAfter));
+			}
+		}
+		return rules;
+	}
+
+	static String randomText(Random random, int length) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			text.append("abcd1.".charAt(random.nextInt(6)));
+		}
+		return text.toString();
+	}
+
+	@Test
+	public void testOrderAndStopAfter() {
+		List<ScoreOffsetRule> rules = new ArrayList<>();
+		rules.add(new ScoreOffsetRule(SearchTypeEnum.REGEX, "Doc [0-9]", 2, false));
+		rules.add(new ScoreOffsetRule(SearchTypeEnum.EXACT, "Test", 1, true));
+		rules.add(new ScoreOffsetRule(SearchTypeEnum.EXACT, "Doc", 0, false));
+		ScoreOffsetRuleSet ruleSet = new ScoreOffsetRuleSet(rules);
+
+		assertEquals(6.0, ruleSet.apply("Test Doc 1.txt", 3), 0);
+		assertTrue("A rule with an adjustment of 0 must drop the document", Double.isNaN(ruleSet.apply("A Doc 1.txt", 3)));
+		assertEquals(3.0, ruleSet.apply("Other 1.txt", 3), 0);
+	}
+
+	@Test
+	public void testRequiredLiteral() {
+		assertEquals("Test Doc ", ScoreOffsetRuleSet.requiredLiteral("Test Doc [0-9]+"));
+		assertEquals("Test", ScoreOffsetRuleSet.requiredLiteral("^Test\\.?txt"));
+		assertEquals(".txt", ScoreOffsetRuleSet.requiredLiteral("[0-9]{1,3}\\.txt$"));
+		assertEquals("ab", ScoreOffsetRuleSet.requiredLiteral("ab+c"));
+		assertEquals(null, ScoreOffsetRuleSet.requiredLiteral("Test|Doc"));
+		assertEquals(null, ScoreOffsetRuleSet.requiredLiteral("(?i)Test"));
+		assertEquals(null, ScoreOffsetRuleSet.requiredLiteral("\\x41BC"));
+	}
+
+	@Test
+	public void testRequiredLiterals() {
+		assertEquals(Arrays.asList("Jane Austen", "Pearl S. Buck", "Virginia Woolf"),
+				ScoreOffsetRuleSet.requiredLiterals("Jane Austen|Pearl S\\. Buck|Virginia Woolf"));
+		assertEquals(Arrays.asList("Preview", "trans.", "Psychopath Free"), ScoreOffsetRuleSet.requiredLiterals("(Preview|trans\\.|Psychopath Free)"));
+		assertEquals(Arrays.asList("Test", "Doc"), ScoreOffsetRuleSet.requiredLiterals("(?:Test|Doc)"));
+		assertEquals(Arrays.asList("ab", "cd|"), ScoreOffsetRuleSet.requiredLiterals("[|]ab|cd\\|"));
+		// An alternative without a literal makes the rule a candidate for every title
+		assertEquals(null, ScoreOffsetRuleSet.requiredLiterals("Test|[0-9]+"));
+		// A group followed by more of the regex is not split
+		assertEquals(Arrays.asList(" Doc"), ScoreOffsetRuleSet.requiredLiterals("(Test|Other) Doc"));
+		assertEquals(null, ScoreOffsetRuleSet.requiredLiterals("(Test|Other)[0-9]"));
+	}
+
+	/**
+	 * Ensure that the compiled rules adjust every title the same as applying the rules one at a time
+	 */
+	@Test
+	public void testMatchesRuleLoop() {
+		Random random = new Random(42);
+		for (int round = 0; round < 50; round++) {
+			List<ScoreOffsetRule> rules = randomRules(random, 1 + random.nextInt(150));
+			ScoreOffsetRuleSet ruleSet = new ScoreOffsetRuleSet(rules);
+			for (int i = 0; i < 200; i++) {
+				String title = randomText(random, random.nextInt(20)) + ".txt";
+				if (random.nextBoolean())
+					title = title.toUpperCase();
+				assertEquals(title, applyEach(rules, title, 5), ruleSet.apply(title, 5), 0);
+			}
+		}
+	}
+}
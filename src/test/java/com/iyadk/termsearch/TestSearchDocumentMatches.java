@@ -0,0 +1,86 @@
+package com.iyadk.termsearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestSearchDocumentMatches {
+	// The counts are shared by every search so the tests use docIds past those of the test indexes
+	private static final double FIRST_DOC_ID = 10000000;
+
+	/**
+	 * Ensure that a document without results has a match count of 1 and that every result is counted
+	 */
+	@Test
+	public void testIncrement() {
+		double docId = FIRST_DOC_ID;
+		assertEquals("A document without results must have a count of 1", 1, SearchDocumentMatches.getDocMatchCount(docId), 0);
+		assertEquals("The previous count was not returned", 1, SearchDocumentMatches.incrementDocMatchCount(docId), 0);
+		assertEquals("The previous count was not returned", 2, SearchDocumentMatches.incrementDocMatchCount(docId), 0);
+		assertEquals("The results were not counted", 3, SearchDocumentMatches.getDocMatchCount(docId), 0);
+	}
+
+	/**
+	 * Ensure that concurrent searches never count more results than the limit allows
+	 */
+	@Test
+	public void testTryIncrementConcurrently() throws InterruptedException {
+		double docId = FIRST_DOC_ID + 1;
+		AtomicInteger counted = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread(() -> {
+				for (int j = 0; j < 1000; j++) {
+					if (SearchDocumentMatches.tryIncrementDocMatchCount(docId, 100))
+						counted.incrementAndGet();
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals("The limit was not respected", 100, counted.get());
+		assertEquals("The results were not counted", 101, SearchDocumentMatches.getDocMatchCount(docId), 0);
+		assertFalse("A result past the limit was counted", SearchDocumentMatches.tryIncrementDocMatchCount(docId, 100));
+		assertTrue("A higher limit must accept the result", SearchDocumentMatches.tryIncrementDocMatchCount(docId, 101));
+	}
+
+	/**
+	 * Ensure that growing the table for a larger index keeps the counts
+	 */
+	@Test
+	public void testEnsureCapacityKeepsCounts() {
+		double docId = FIRST_DOC_ID + 2;
+		SearchDocumentMatches.incrementDocMatchCount(docId);
+		SearchDocumentMatches.ensureCapacity((long) FIRST_DOC_ID * 4);
+
+		assertEquals("The count was lost when the table grew", 2, SearchDocumentMatches.getDocMatchCount(docId), 0);
+		assertEquals("A document past the table must have a count of 1", 1, SearchDocumentMatches.getDocMatchCount(FIRST_DOC_ID * 8), 0);
+	}
+
+	/**
+	 * Ensure that the docIds of corpora with more lines than an int can hold are counted separately
+	 */
+	@Test
+	public void testLargeDocIds() {
+		double docId = 3L * Integer.MAX_VALUE;
+		SearchDocumentMatches.ensureCapacity((long) docId);
+		assertEquals("A document without results must have a count of 1", 1, SearchDocumentMatches.getDocMatchCount(docId), 0);
+		assertEquals("The previous count was not returned", 1, SearchDocumentMatches.incrementDocMatchCount(docId), 0);
+		assertTrue(SearchDocumentMatches.tryIncrementDocMatchCount(docId, 2));
+		assertFalse("A result past the limit was counted", SearchDocumentMatches.tryIncrementDocMatchCount(docId, 2));
+
+		assertEquals("The results were not counted", 3, SearchDocumentMatches.getDocMatchCount(docId), 0);
+		assertEquals("The docIds of the same page were confused", 1, SearchDocumentMatches.getDocMatchCount(docId + 1), 0);
+		assertEquals("The docIds below the int range were confused", 1,
+				SearchDocumentMatches.getDocMatchCount(docId - 2L * Integer.MAX_VALUE - 2), 0);
+	}
+}
@@ -10,8 +10,15 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.junit.AfterClass;
@@ -373,4 +380,209 @@ public class TestSearchIndex {
 		}
 	}
 
+	/**
+	 * Ensure that a score sorted index returns the same top matches when scored by the document score only
+	 */
+	@Test
+	public void testSearchScoreSortedIndex() throws IOException {
+		String phrase = "priority";
+		String sortedIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+		String corpusFile = TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile().toString();
+
+		IndexCreator indexCreator = new IndexCreator(corpusFile, sortedIndexDir);
+		indexCreator.setIndexSort(IndexCreator.IndexSort.SCORE_DESCENDING);
+		indexCreator.create();
+
+		SearchIndex sortedSearcher = new SearchIndex(termsFile, Paths.get("./output.tsv").toString(), sortedIndexDir);
+		try {
+			sortedSearcher.setScoring("score");
+			indexSearcher.setScoring("score");
+
+			TopDocs sortedResults = sortedSearcher.searchPhrase(phrase, field, 3);
+			TopDocs results = indexSearcher.searchPhrase(phrase, field, 3);
+
+			assertEquals(String.format("Incorrect number of results were found for search phrase: %s", phrase),
+					results.scoreDocs.length, sortedResults.scoreDocs.length);
+			for (int i = 0; i < results.scoreDocs.length; i++) {
+				assertEquals("Results of the sorted index are not returned based on assigned priority",
+						indexSearcher.searcher.doc(results.scoreDocs[i].doc).get("title"),
+						sortedSearcher.searcher.doc(sortedResults.scoreDocs[i].doc).get("title"));
+			}
+		} finally {
+			indexSearcher.setScoring("_score / score");
+			sortedSearcher.close();
+			Files.walk(Paths.get(sortedIndexDir)).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	/**
+	 * Ensure that skipping over the runs of equal scores of a score sorted index finds every distinct score
+	 */
+	@Test
+	public void testSortedScores() throws IOException {
+		String sortedIndexDir = Files.createTempDirectory("lucene-index-test").toString();
+		String corpusFile = TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile().toString();
+
+		IndexCreator indexCreator = new IndexCreator(corpusFile, sortedIndexDir);
+		indexCreator.setIndexSort(IndexCreator.IndexSort.SCORE_DESCENDING);
+		indexCreator.create();
+		indexCreator.setAppend(true);
+		indexCreator.create();
+
+		SearchIndex sortedSearcher = new SearchIndex(termsFile, Paths.get("./output.tsv").toString(), sortedIndexDir);
+		try {
+			for (LeafReaderContext leaf : sortedSearcher.searcher.getIndexReader().leaves()) {
+				List<Double> runScores = new ArrayList<>();
+				SearchIndex.SortedScores sortedScores = new SearchIndex.SortedScores(leaf.reader());
+				int doc = -1;
+				while ((doc = sortedScores.nextRun(doc)) != DocIdSetIterator.NO_MORE_DOCS)
+					runScores.add(sortedScores.score);
+
+				List<Double> scores = new ArrayList<>();
+				NumericDocValues scoreValues = DocValues.getNumeric(leaf.reader(), "score");
+				while (scoreValues.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+					double score = Double.longBitsToDouble(scoreValues.longValue());
+					if (scores.isEmpty() || scores.get(scores.size() - 1) != score)
+						scores.add(score);
+				}
+				assertEquals("The runs of scores were not all found", scores, runScores);
+				assertEquals("The corpus has 5 distinct scores", 5, runScores.size());
+			}
+		} finally {
+			sortedSearcher.close();
+			Files.walk(Paths.get(sortedIndexDir)).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	/**
+	 * Ensure that every term of a terms file longer than the search window is searched
+	 */
+	@Test
+	public void testSearchAllStreamsTerms() throws Exception {
+		Path streamedTermsFile = Files.createTempFile("term-search-test", ".txt");
+		Path outputFile = Files.createTempFile("term-search-test", ".tsv");
+		List<String> terms = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+			terms.add("unmatched" + i);
+		terms.add("cookie");
+		Files.write(streamedTermsFile, terms);
+
+		SearchIndex streamingSearcher = new SearchIndex(streamedTermsFile.toString(), outputFile.toString(), indexDir);
+		try {
+			streamingSearcher.setNumThreads(2);
+			streamingSearcher.searchAll(field);
+
+			List<String> results = Files.readAllLines(outputFile);
+			assertEquals("The last term of the terms file was not searched", 1, results.size());
+			assertTrue("The last term of the terms file was not searched", results.get(0).startsWith("cookie\t"));
+		} finally {
+			streamingSearcher.close();
+			Files.delete(streamedTermsFile);
+			Files.delete(outputFile);
+		}
+	}
+
+	/**
+	 * Ensure that the elastic search execution writes the same results as the fixed search threads
+	 */
+	@Test
+	public void testSearchAllElastic() throws Exception {
+		Path elasticTermsFile = Files.createTempFile("term-search-test", ".txt");
+		Path fixedOutputFile = Files.createTempFile("term-search-test", ".tsv");
+		Path elasticOutputFile = Files.createTempFile("term-search-test", ".tsv");
+		List<String> terms = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			terms.add(i % 2 == 0 ? "unmatched" + i : "priority");
+		terms.add("cookie");
+		Files.write(elasticTermsFile, terms);
+
+		SearchIndex fixedSearcher = new SearchIndex(elasticTermsFile.toString(), fixedOutputFile.toString(), indexDir);
+		SearchIndex elasticSearcher = new SearchIndex(elasticTermsFile.toString(), elasticOutputFile.toString(), indexDir);
+		try {
+			assertEquals("The elastic search must be chosen explicitly", SearchIndex.SearchExecution.FIXED,
+					fixedSearcher.getSearchExecution());
+			fixedSearcher.setOrderedOutput(true);
+			fixedSearcher.searchAll(field);
+
+			elasticSearcher.setOrderedOutput(true);
+			elasticSearcher.setSearchExecution(SearchIndex.SearchExecution.ELASTIC);
+			elasticSearcher.searchAll(field);
+
+			List<String> fixedResults = Files.readAllLines(fixedOutputFile);
+			assertFalse("No results were written", fixedResults.isEmpty());
+			assertEquals("The elastic search did not write the same results", fixedResults, Files.readAllLines(elasticOutputFile));
+		} finally {
+			fixedSearcher.close();
+			elasticSearcher.close();
+			Files.delete(elasticTermsFile);
+			Files.delete(fixedOutputFile);
+			Files.delete(elasticOutputFile);
+		}
+	}
+
+	/**
+	 * Ensure that paging through the matches returns the same matches as a single search
+	 */
+	@Test
+	public void testSearchPhraseAfter() throws IOException {
+		String phrase = "priority";
+
+		TopDocs results = indexSearcher.searchPhrase(phrase, field, 5);
+		TopDocs firstPage = indexSearcher.searchPhraseAfter(phrase, field, null, 2);
+		TopDocs secondPage = indexSearcher.searchPhraseAfter(phrase, field, firstPage.scoreDocs[1], 5);
+
+		assertEquals("Incorrect number of results were found on the first page", 2, firstPage.scoreDocs.length);
+		assertEquals("Incorrect number of results were found on the second page", 3, secondPage.scoreDocs.length);
+		for (int i = 0; i < results.scoreDocs.length; i++) {
+			ScoreDoc match = i < 2 ? firstPage.scoreDocs[i] : secondPage.scoreDocs[i - 2];
+			assertEquals("The pages do not return the matches in order", results.scoreDocs[i].doc, match.doc);
+		}
+	}
+
+	/**
+	 * Ensure that searching the segments of frequent terms in parallel writes the same results as
+	 * searching every term on one thread
+	 */
+	@Test
+	public void testSearchAllSegmentThreads() throws Exception {
+		String corpusFile = TestSearchIndex.class.getClassLoader().getResource("test-corpus.txt").getFile().toString();
+		Path segmentedIndexDir = Files.createTempDirectory("lucene-index-test");
+		Path segmentTermsFile = Files.createTempFile("term-search-test", ".txt");
+		Path sequentialOutputFile = Files.createTempFile("term-search-test", ".tsv");
+		Path parallelOutputFile = Files.createTempFile("term-search-test", ".tsv");
+		Files.write(segmentTermsFile, Arrays.asList("priority", "sample text", "first word", "cookie", "slop"));
+
+		// Every append adds the corpus as a new segment
+		IndexCreator segmentedIndexCreator = new IndexCreator(corpusFile, segmentedIndexDir.toString());
+		segmentedIndexCreator.create();
+		segmentedIndexCreator.setAppend(true);
+		segmentedIndexCreator.create();
+		segmentedIndexCreator.create();
+
+		SearchIndex sequentialSearcher = new SearchIndex(segmentTermsFile.toString(), sequentialOutputFile.toString(), segmentedIndexDir.toString());
+		SearchIndex parallelSearcher = new SearchIndex(segmentTermsFile.toString(), parallelOutputFile.toString(), segmentedIndexDir.toString());
+		try {
+			assertTrue("The index does not have several segments", parallelSearcher.searcher.getIndexReader().leaves().size() > 1);
+
+			sequentialSearcher.setOrderedOutput(true);
+			sequentialSearcher.searchAll(field);
+
+			parallelSearcher.setOrderedOutput(true);
+			parallelSearcher.setSegmentThreads(2);
+			parallelSearcher.setParallelMinDocFreq(1);
+			parallelSearcher.setSliceLimits(31, 2);
+			parallelSearcher.searchAll(field);
+
+			List<String> sequentialResults = Files.readAllLines(sequentialOutputFile);
+			assertFalse("No results were written", sequentialResults.isEmpty());
+			assertEquals("The parallel search did not write the same results", sequentialResults, Files.readAllLines(parallelOutputFile));
+		} finally {
+			sequentialSearcher.close();
+			parallelSearcher.close();
+			Files.walk(segmentedIndexDir).map(Path::toFile).sorted((file1, file2) -> file2.compareTo(file1)).forEach(File::delete);
+			Files.delete(segmentTermsFile);
+			Files.delete(sequentialOutputFile);
+			Files.delete(parallelOutputFile);
+		}
+	}
 }
@@ -0,0 +1,85 @@
+package com.iyadk.termsearch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestSearchLimiter {
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final int CORES = 2;
+
+	/**
+	 * Ensure that searches waiting on the index let more searches through until the cores are busy
+	 */
+	@Test
+	public void testGrowsWhileWaiting() throws InterruptedException {
+		SearchLimiter limiter = new SearchLimiter(CORES, 16, 0);
+		assertEquals("The limit must start at the number of cores", CORES, limiter.getLimit());
+
+		// The cores are a quarter busy however many searches run
+		long now = 0;
+		for (int i = 0; i < 10; i++)
+			now = recordWindow(limiter, now, 0.25);
+		assertEquals("The limit did not reach the most searches", 16, limiter.getLimit());
+
+		// The permits follow the limit
+		for (int i = 0; i < limiter.getLimit(); i++)
+			limiter.acquire();
+	}
+
+	/**
+	 * Ensure that the limit shrinks back to the number of cores once the index is cached.  The searches
+	 * then oversubscribe the cores: every search waits for a core but the cores are saturated.
+	 */
+	@Test
+	public void testShrinksWhenOversubscribed() {
+		SearchLimiter limiter = new SearchLimiter(CORES, 16, 0);
+		long now = 0;
+		for (int i = 0; i < 10; i++)
+			now = recordWindow(limiter, now, 0.1);
+		assertEquals("The limit did not grow on a cold index", 16, limiter.getLimit());
+
+		for (int i = 0; i < 40; i++)
+			now = recordWindow(limiter, now, 1);
+		assertEquals("The limit did not return to the number of cores", CORES, limiter.getLimit());
+		assertEquals("The peak limit was not kept", 16, limiter.getPeakLimit());
+	}
+
+	/**
+	 * Ensure that the limit is kept while the cores are close to the target utilisation
+	 */
+	@Test
+	public void testHoldsNearTarget() {
+		SearchLimiter limiter = new SearchLimiter(CORES, 16, 0);
+		long now = recordWindow(limiter, 0, 0.25);
+		int limit = limiter.getLimit();
+		for (int i = 0; i < 10; i++)
+			now = recordWindow(limiter, now, 0.85);
+		assertEquals("The limit moved within the target utilisation", limit, limiter.getLimit());
+	}
+
+	/**
+	 * Ensure that the limit moves gradually toward its target
+	 */
+	@Test
+	public void testMovesHalfway() {
+		SearchLimiter limiter = new SearchLimiter(CORES, 16, 0);
+		recordWindow(limiter, 0, 0.25);
+		// The target is ceil(2 * 0.85 / 0.25) = 7 searches
+		assertEquals("The limit did not move halfway to its target", 4, limiter.getLimit());
+	}
+
+	/*
+	 * Records a window of searches of 1 ms of CPU each that keep the cores busy at the utilisation
+	 * @return The time at which the window ended
+	 */
+	private static long recordWindow(SearchLimiter limiter, long start, double utilisation) {
+		int searches = 32;
+		long wallNanos = (long) (searches * MILLIS / (utilisation * CORES));
+		for (int i = 1; i <= searches; i++)
+			limiter.record(MILLIS, start + wallNanos * i / searches);
+		return start + wallNanos;
+	}
+}
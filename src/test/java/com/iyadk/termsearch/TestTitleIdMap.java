@@ -0,0 +1,54 @@
+package com.iyadk.termsearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestTitleIdMap {
+
+	@Test
+	public void testFirstOccurrence() {
+		TitleIdMap titleIdMap = new TitleIdMap(Long.MAX_VALUE);
+		assertEquals(5, titleIdMap.putIfAbsent("Test Doc 1.txt", 5));
+		assertEquals(5, titleIdMap.putIfAbsent("Test Doc 1.txt", 9));
+		assertEquals(7, titleIdMap.putIfAbsent("Test Doc 2.txt", 7));
+		assertEquals(3, titleIdMap.putMin("Test Doc 2.txt", 3));
+		assertEquals(3, titleIdMap.putMin("Test Doc 2.txt", 8));
+		assertEquals(2, titleIdMap.size());
+	}
+
+	/**
+	 * Ensure that titles whose first hash collides keep their own docId
+	 */
+	@Test
+	public void testHashCollision() {
+		TitleIdMap titleIdMap = new TitleIdMap(Long.MAX_VALUE);
+		assertEquals(5, titleIdMap.putIfAbsent(42, 1, 5));
+		assertEquals(9, titleIdMap.putIfAbsent(42, 2, 9));
+		assertEquals(5, titleIdMap.putIfAbsent(42, 1, 11));
+		assertEquals(9, titleIdMap.putIfAbsent(42, 2, 11));
+		assertEquals(2, titleIdMap.size());
+	}
+
+	/**
+	 * Ensure that titles keep their docId while the table grows past the heap limit and is memory mapped
+	 */
+	@Test
+	public void testMemoryMapped() {
+		TitleIdMap titleIdMap = new TitleIdMap(0);
+		int titles = 200000;
+		for (int i = 0; i < titles; i++) {
+			assertEquals(i, titleIdMap.putIfAbsent("Title " + i, i));
+		}
+		for (int i = 0; i < titles; i++) {
+			assertEquals(i, titleIdMap.putIfAbsent("Title " + i, titles + i));
+		}
+		assertEquals(titles, titleIdMap.size());
+		assertTrue("The table was not memory mapped", titleIdMap.getOffHeapBytes() > 0);
+
+		titleIdMap.clear();
+		assertEquals(0, titleIdMap.size());
+		assertEquals(0, titleIdMap.getOffHeapBytes());
+	}
+}
@@ -0,0 +1,49 @@
+package com.iyadk.termsearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestWriterTuning {
+	private static final long GB = 1L << 30;
+
+	@Test
+	public void testAutoScalesWithHeapAndCores() {
+		WriterTuning small = new WriterTuning().resolve(GB, 2, 1, 2);
+		WriterTuning large = new WriterTuning().resolve(64 * GB, 32, 1, 16);
+
+		assertEquals(256, small.getRamBufferMB(), 0);
+		assertEquals(8192, large.getRamBufferMB(), 0);
+		assertTrue("The per thread limit must stay below 2048 MB", large.getRamPerThreadMB() < 2048);
+		assertTrue(large.getMergeThreads() > small.getMergeThreads());
+		assertEquals(large.getMergeThreads() + 5, large.getMaxMerges());
+	}
+
+	@Test
+	public void testPartitionsShareTheHeap() {
+		assertEquals(2048, new WriterTuning().resolve(64 * GB, 32, 4, 16).getRamBufferMB(), 0);
+	}
+
+	@Test
+	public void testExplicitSettingsAreKept() {
+		WriterTuning writerTuning = new WriterTuning();
+		writerTuning.setRamBufferMB(100);
+		writerTuning.setMergeThreads(3);
+		WriterTuning resolved = writerTuning.resolve(64 * GB, 32, 1, 16);
+
+		assertEquals(100, resolved.getRamBufferMB(), 0);
+		assertEquals(100, resolved.getRamPerThreadMB());
+		assertEquals(3, resolved.getMergeThreads());
+	}
+
+	@Test
+	public void testLuceneDefaults() {
+		WriterTuning writerTuning = new WriterTuning();
+		writerTuning.setMode(WriterTuning.Mode.LUCENE);
+		WriterTuning resolved = writerTuning.resolve(64 * GB, 32, 1, 16);
+
+		assertEquals(16, resolved.getRamBufferMB(), 0);
+		assertEquals(0, resolved.getMergeThreads());
+	}
+}